@@ -0,0 +1,145 @@
+package com.github.mimo31.thedecomposegame;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+import android.view.ViewGroup;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the steady-state drawing allocates nothing - the StringDraw cache lookups and the onDraw of the views
+ * of the PlayActivity, the ChooseLevelActivity and the StartActivity, once the caches are warmed up by the first frames.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DrawAllocationTest
+{
+    // the number of frames drawn before the allocations are counted, so the caches are filled
+    private static final int WARM_UP_FRAMES = 20;
+
+    // the number of frames the allocations are counted in
+    private static final int COUNTED_FRAMES = 100;
+
+    @Rule
+    public final ActivityTestRule<StartActivity> startRule = new ActivityTestRule<>(StartActivity.class, false, false);
+
+    @Rule
+    public final ActivityTestRule<ChooseLevelActivity> chooseLevelRule = new ActivityTestRule<>(ChooseLevelActivity.class, false, false);
+
+    @Rule
+    public final ActivityTestRule<PlayActivity> playRule = new ActivityTestRule<>(PlayActivity.class, false, false);
+
+    @Test
+    public void stringDrawLookupsDoNotAllocate()
+    {
+        final Paint p = new Paint();
+        final Rect bounds = new Rect(0, 0, 400, 100);
+        final Canvas canvas = new Canvas(Bitmap.createBitmap(bounds.width(), bounds.height(), Bitmap.Config.ARGB_8888));
+        final TextBuffer text = new TextBuffer(64);
+        Runnable frame = new Runnable()
+        {
+            private int time;
+
+            @Override
+            public void run()
+            {
+                this.time += 16;
+                StringDraw.drawMaxString("PLAY!", StringDraw.getMaxStringData("PLAY!", bounds, StringDraw.TextAlign.MIDDLE, p), canvas, p);
+                text.clear().appendTime(this.time % 100000);
+                StringDraw.drawMaxString(text, StringDraw.getMaxNumberData(text, bounds, StringDraw.TextAlign.RIGHT, p), canvas, p);
+                p.setTextSize(StringDraw.getMaxTextSize("best time", bounds, p));
+            }
+        };
+        for (int i = 0; i < WARM_UP_FRAMES; i++)
+        {
+            frame.run();
+        }
+        assertEquals(0, countAllocations(frame));
+    }
+
+    @Test
+    public void startActivityDrawDoesNotAllocate()
+    {
+        Activity activity = this.startRule.launchActivity(null);
+        assertDrawDoesNotAllocate(getContentView(activity, 0));
+    }
+
+    @Test
+    public void chooseLevelActivityDrawDoesNotAllocate()
+    {
+        Activity activity = this.chooseLevelRule.launchActivity(null);
+        assertDrawDoesNotAllocate(getContentView(activity, 0));
+    }
+
+    @Test
+    public void playActivityDrawDoesNotAllocate()
+    {
+        Intent intent = new Intent(InstrumentationRegistry.getTargetContext(), PlayActivity.class);
+        intent.putExtra("level", 0);
+        Activity activity = this.playRule.launchActivity(intent);
+
+        // the GameView is added after the GridSurfaceView
+        assertDrawDoesNotAllocate(getContentView(activity, 1));
+    }
+
+    // returns a view added to an Activity by addContentView
+    private static View getContentView(Activity activity, int index)
+    {
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        return ((ViewGroup) activity.findViewById(android.R.id.content)).getChildAt(index);
+    }
+
+    // draws the view on the UI thread and checks that the frames after the warm up allocate nothing
+    private static void assertDrawDoesNotAllocate(final View view)
+    {
+        final Canvas canvas = new Canvas(Bitmap.createBitmap(view.getWidth(), view.getHeight(), Bitmap.Config.ARGB_8888));
+        final int[] allocations = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Runnable frame = new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        view.draw(canvas);
+                    }
+                };
+                for (int i = 0; i < WARM_UP_FRAMES; i++)
+                {
+                    frame.run();
+                }
+                allocations[0] = countAllocations(frame);
+            }
+        });
+        assertEquals(0, allocations[0]);
+    }
+
+    // counts the objects allocated by the current thread while running the frame COUNTED_FRAMES times
+    @SuppressWarnings("deprecation")
+    private static int countAllocations(Runnable frame)
+    {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < COUNTED_FRAMES; i++)
+        {
+            frame.run();
+        }
+        Debug.stopAllocCounting();
+        return Debug.getThreadAllocCount();
+    }
+}
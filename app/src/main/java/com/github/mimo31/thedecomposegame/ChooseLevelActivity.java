@@ -1,6 +1,7 @@
 package com.github.mimo31.thedecomposegame;
 
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -43,6 +44,13 @@ public class ChooseLevelActivity extends AppCompatActivity
         this.startActivity(intent);
     }
 
+    @Override
+    protected void onDestroy()
+    {
+        super.onDestroy();
+        this.plane.previews.shutdown();
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState)
     {
@@ -94,6 +102,22 @@ public class ChooseLevelActivity extends AppCompatActivity
         // the objects used for painting everything
         private Paint p;
 
+        // the previews of the boards of the levels, rendered in the background
+        private final LevelPreviews previews;
+
+        // the paint drawing the previews scaled without filtering, so the tiles stay sharp
+        private final Paint previewPaint = new Paint();
+
+        // the size of the square the preview of a level is drawn into, at the left of the level rectangle
+        private int previewSize;
+
+        // the bounds a preview is drawn into, reused so that drawing does not allocate
+        private final Rect previewBounds = new Rect();
+
+        // the texts of the level rectangles, built in place so that drawing does not allocate
+        private final TextBuffer levelText = new TextBuffer(16);
+        private final TextBuffer timeText = new TextBuffer(24);
+
         // indicates whether the sizes are already initialized - whether the initializeComponentSizes has been called
         private boolean initialized = false;
 
@@ -105,6 +129,8 @@ public class ChooseLevelActivity extends AppCompatActivity
             super(attachedActivity);
             this.attachedActivity = attachedActivity;
             this.setBackgroundColor(Color.WHITE);
+            this.previews = new LevelPreviews(this, Level.levels.length);
+            this.previewPaint.setFilterBitmap(false);
             this.gestureDetector = new GestureDetectorCompat(this.attachedActivity.getApplicationContext(), new GestureListener(this));
         }
 
@@ -133,6 +159,9 @@ public class ChooseLevelActivity extends AppCompatActivity
 
             int rectsWidth = this.width - 4 * borderSize;
 
+            // the texts take the middle 3/4 of the rectangles, the preview fits in the space left of them
+            this.previewSize = Math.min(rectsWidth / 8 - borderSize, this.bottomBorderTop - this.levelTop);
+
             this.levelTextSize = StringDraw.getMaxTextSize("Level 99", new Rect(0, 0, rectsWidth * 3 / 4, stripSize * 3 / 4), this.p);
             this.timeTextSize = StringDraw.getMaxTextSize("999.999 s", new Rect(0, 0, rectsWidth * 3 / 4, stripSize / 2), this.p);
 
@@ -160,6 +189,8 @@ public class ChooseLevelActivity extends AppCompatActivity
             this.p.setColor(Color.LTGRAY);
             canvas.drawRect(0, 0, this.width, this.height, this.p);
 
+            // only the levels intersecting the view are drawn
+            int firstDrawnLevel = nextLevel;
             while (nextY < this.height && nextLevel >= 0)
             {
                 // draw the level rectangles
@@ -172,23 +203,64 @@ public class ChooseLevelActivity extends AppCompatActivity
                 this.p.setColor(Color.WHITE);
 
                 // draw the level text
-                StringDraw.drawMaxString("Level " + (nextLevel + 1), 0, nextY + this.levelTop, this.width, nextY + this.middleTop, StringDraw.TextAlign.MIDDLE, canvas, this.p, this.levelTextSize);
+                this.levelText.clear().append("Level ").append(nextLevel + 1);
+                StringDraw.drawMaxString(this.levelText, 0, nextY + this.levelTop, this.width, nextY + this.middleTop, StringDraw.TextAlign.MIDDLE, canvas, this.p, this.levelTextSize);
 
                 // draw the time text
-                String timeText;
-                if (Level.bestTimes[nextLevel] != 0)
+                this.timeText.clear();
+                if (Level.getBestTime(nextLevel) != 0)
                 {
-                    timeText = PlayActivity.formatTime(Level.bestTimes[nextLevel]) + " s";
+                    this.timeText.appendTime(Level.getBestTime(nextLevel)).append(" s");
                 }
                 else
                 {
-                    timeText = "to do";
+                    this.timeText.append("to do");
                 }
-                StringDraw.drawMaxString(timeText, 0, nextY + this.timeTop, this.width, nextY + this.bottomBorderTop, StringDraw.TextAlign.MIDDLE, canvas, this.p, this.timeTextSize);
+                StringDraw.drawMaxString(this.timeText, 0, nextY + this.timeTop, this.width, nextY + this.bottomBorderTop, StringDraw.TextAlign.MIDDLE, canvas, this.p, this.timeTextSize);
+
+                this.drawPreview(nextLevel, nextY, canvas);
 
                 nextLevel--;
                 nextY += this.levelHeight;
             }
+
+            // prerender the previews of a screen of levels on both sides of the view, so scrolling rarely shows a missing preview
+            int drawnLevels = firstDrawnLevel - nextLevel;
+            for (int i = Math.min(Level.maxLevel, firstDrawnLevel + drawnLevels); i > firstDrawnLevel; i--)
+            {
+                this.previews.request(i);
+            }
+            for (int i = nextLevel; i >= 0 && i > nextLevel - drawnLevels; i--)
+            {
+                this.previews.request(i);
+            }
+        }
+
+        /**
+         * Draws the preview of the board of a level if it has been rendered, otherwise requests it.
+         *
+         * @param level  the index of the level
+         * @param y      the top of the rectangle of the level
+         * @param canvas the canvas to draw on
+         */
+        private void drawPreview(int level, int y, Canvas canvas)
+        {
+            Bitmap preview = this.previews.get(level);
+            if (preview == null)
+            {
+                this.previews.request(level);
+                return;
+            }
+
+            // fit the board into the preview square keeping its shape, centered in the space left of the texts
+            Level levelData = Level.levels[level];
+            int longerSide = Math.max(levelData.width, levelData.height);
+            int boardWidth = this.previewSize * levelData.width / longerSide;
+            int boardHeight = this.previewSize * levelData.height / longerSide;
+            int previewLeft = this.left + (this.right - this.left) / 16 - boardWidth / 2;
+            int previewTop = y + (this.levelTop + this.bottomBorderTop) / 2 - boardHeight / 2;
+            this.previewBounds.set(previewLeft, previewTop, previewLeft + boardWidth, previewTop + boardHeight);
+            canvas.drawBitmap(preview, null, this.previewBounds, this.previewPaint);
         }
 
         /**
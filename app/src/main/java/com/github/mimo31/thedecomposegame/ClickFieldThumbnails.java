@@ -0,0 +1,102 @@
+package com.github.mimo31.thedecomposegame;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.util.HashMap;
+
+/**
+ * Caches images of ClickFields, so that the ClickField selection dialog does not have to draw the fields tile by tile every frame.
+ * <p>
+ * Every ClickField is rendered once per size bucket - the buckets are the maximal size and its halves down to MIN_BUCKET_SIZE.
+ * A field is drawn by scaling down the image of the smallest bucket at least as big as the requested size, so the scaling
+ * during the animations of the dialog never magnifies an image and never shrinks one to less than a half.
+ * The images are only dropped when the maximal size changes (i.e. when the size of the view changes).
+ */
+public class ClickFieldThumbnails
+{
+    // the size of the smallest bucket
+    private static final int MIN_BUCKET_SIZE = 8;
+
+    // the images of the fields, images[i] has the size maxSize >> i, created when first needed
+    private final HashMap<ClickField, Bitmap[]> images = new HashMap<>();
+
+    // the paint used to render the fields into the images
+    private final Paint renderPaint = new Paint();
+
+    // the paint used to draw the images scaled
+    private final Paint imagePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    // the bounds the image is drawn into, reused so that drawing does not allocate
+    private final Rect destination = new Rect();
+
+    // the size of the biggest bucket
+    private int maxSize;
+
+    // the number of buckets
+    private int bucketCount;
+
+    /**
+     * Sets the biggest size the fields are drawn with. Drops the cached images if the size changes.
+     *
+     * @param maxSize the biggest size of the drawn fields in pixels
+     */
+    public void setMaxSize(int maxSize)
+    {
+        if (this.maxSize == maxSize)
+        {
+            return;
+        }
+        this.maxSize = maxSize;
+        this.bucketCount = 1;
+        while ((maxSize >> this.bucketCount) >= MIN_BUCKET_SIZE)
+        {
+            this.bucketCount++;
+        }
+        this.images.clear();
+    }
+
+    /**
+     * Draws a ClickField as a maximized rectangle in the specified square, the same way as PlayActivity.drawClickField.
+     *
+     * @param clickField the ClickField to draw
+     * @param left       left of the square
+     * @param top        top of the square
+     * @param right      right of the square
+     * @param bottom     bottom of the square
+     * @param canvas     the canvas to draw on
+     */
+    public void draw(ClickField clickField, int left, int top, int right, int bottom, Canvas canvas)
+    {
+        int size = Math.max(right - left, bottom - top);
+        if (size <= 0)
+        {
+            return;
+        }
+
+        // find the smallest bucket at least as big as the requested size
+        int bucket = 0;
+        while (bucket + 1 < this.bucketCount && (this.maxSize >> (bucket + 1)) >= size)
+        {
+            bucket++;
+        }
+
+        Bitmap[] fieldImages = this.images.get(clickField);
+        if (fieldImages == null)
+        {
+            fieldImages = new Bitmap[this.bucketCount];
+            this.images.put(clickField, fieldImages);
+        }
+        if (fieldImages[bucket] == null)
+        {
+            int bucketSize = this.maxSize >> bucket;
+            fieldImages[bucket] = Bitmap.createBitmap(bucketSize, bucketSize, Bitmap.Config.ARGB_8888);
+            PlayActivity.drawClickField(clickField, 0, 0, bucketSize, bucketSize, new Canvas(fieldImages[bucket]), this.renderPaint);
+        }
+
+        this.destination.set(left, top, right, bottom);
+        canvas.drawBitmap(fieldImages[bucket], null, this.destination, this.imagePaint);
+    }
+}
@@ -0,0 +1,394 @@
+package com.github.mimo31.thedecomposegame;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Estimates the difficulty of levels by playing many randomized playouts of each level.
+ * <p>
+ * A playout repeatedly samples a few of the valid moves of the level and applies the one that clears the most tiles
+ * until the level is cleared or a move limit is reached. The distribution of the moves needed to clear a level
+ * and the rate of getting into a dead end (a state where no move decreases the number of red tiles)
+ * describe the difficulty better than the optimal number of moves does.
+ * <p>
+ * Levels are processed in parallel, each by a task with its own state and random generator, so no state is shared between the threads.
+ * Uses no Android classes, so it can be run on a workstation for whole level packs - by the main method,
+ * e.g. through the difficultyReport Gradle task of the app module.
+ */
+public class DifficultyEstimator
+{
+    /**
+     * The number of levels processed by one task.
+     */
+    private static final int LEVELS_PER_TASK = 16;
+
+    /**
+     * The number of randomly sampled moves the playout policy chooses the best one from.
+     */
+    private static final int TOURNAMENT_SIZE = 4;
+
+    /**
+     * The number of playouts per level, the move limit per tile and the seed used when not specified on the command line.
+     */
+    private static final int DEFAULT_PLAYOUTS = 1000;
+    private static final int DEFAULT_MAX_MOVES_PER_TILE = 4;
+    private static final long DEFAULT_SEED = 0;
+
+    /**
+     * Contains the estimated difficulty of one level.
+     */
+    public static class LevelReport
+    {
+        /**
+         * The index of the level in the estimated pack.
+         */
+        public final int level;
+
+        /**
+         * The number of playouts played.
+         */
+        public final int playouts;
+
+        /**
+         * The number of playouts which cleared the level within the move limit.
+         */
+        public final int cleared;
+
+        /**
+         * The number of playouts which got into a dead end at least once.
+         */
+        public final int deadEnds;
+
+        /**
+         * The sorted numbers of moves of the playouts which cleared the level.
+         */
+        public final int[] movesToClear;
+
+        private LevelReport(int level, int playouts, int cleared, int deadEnds, int[] movesToClear)
+        {
+            this.level = level;
+            this.playouts = playouts;
+            this.cleared = cleared;
+            this.deadEnds = deadEnds;
+            this.movesToClear = movesToClear;
+        }
+
+        /**
+         * @return the fraction of the playouts which did not clear the level
+         */
+        public float getFailRate()
+        {
+            return (this.playouts - this.cleared) / (float) this.playouts;
+        }
+
+        /**
+         * @return the fraction of the playouts which got into a dead end
+         */
+        public float getDeadEndRate()
+        {
+            return this.deadEnds / (float) this.playouts;
+        }
+
+        /**
+         * @param percentile the percentile from 0 to 100
+         * @return the number of moves at the specified percentile of the clearing playouts or -1 if no playout cleared the level
+         */
+        public int getMovesPercentile(int percentile)
+        {
+            if (this.movesToClear.length == 0)
+            {
+                return -1;
+            }
+            return this.movesToClear[(this.movesToClear.length - 1) * percentile / 100];
+        }
+
+        /**
+         * @return the mean number of moves of the clearing playouts or -1 if no playout cleared the level
+         */
+        public float getMeanMoves()
+        {
+            if (this.movesToClear.length == 0)
+            {
+                return -1;
+            }
+            long sum = 0;
+            for (int moves : this.movesToClear)
+            {
+                sum += moves;
+            }
+            return sum / (float) this.movesToClear.length;
+        }
+    }
+
+    /**
+     * Estimates the difficulty of the levels of the game and writes the report.
+     * <p>
+     * Arguments: the file to write the report to (the standard output if missing or "-"),
+     * the number of playouts per level, the move limit per tile and the seed, each optional.
+     *
+     * @param args the command line arguments
+     * @throws IOException          if writing the report fails
+     * @throws InterruptedException if interrupted while estimating
+     */
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        String reportPath = args.length > 0 ? args[0] : "-";
+        int playouts = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PLAYOUTS;
+        int maxMovesPerTile = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_MOVES_PER_TILE;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_SEED;
+
+        ClickField.initializeClickFields();
+        Level.initializeLevels();
+        LevelReport[] reports = estimate(Level.levels, playouts, maxMovesPerTile, seed);
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(reportPath.equals("-") ? System.out : new FileOutputStream(reportPath), "UTF-8"));
+        try
+        {
+            writeReport(reports, writer);
+        }
+        finally
+        {
+            if (!reportPath.equals("-"))
+            {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Estimates the difficulty of all the specified levels using all available processors.
+     *
+     * @param levels            the levels to estimate
+     * @param playoutsPerLevel  the number of playouts to play for each level
+     * @param maxMovesPerTile   the move limit of a playout per tile of the level
+     * @param seed              the seed for the random generators; the same seed gives the same reports
+     * @return the reports for the levels in the same order as the levels
+     * @throws InterruptedException if interrupted while waiting for the tasks
+     */
+    public static LevelReport[] estimate(final Level[] levels, final int playoutsPerLevel, final int maxMovesPerTile, final long seed) throws InterruptedException
+    {
+        final LevelReport[] reports = new LevelReport[levels.length];
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try
+        {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int start = 0; start < levels.length; start += LEVELS_PER_TASK)
+            {
+                final int taskStart = start;
+                final int taskEnd = Math.min(start + LEVELS_PER_TASK, levels.length);
+                futures.add(executor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call()
+                    {
+                        // each task writes only its own part of the reports array
+                        for (int i = taskStart; i < taskEnd; i++)
+                        {
+                            reports[i] = estimateLevel(levels[i], i, playoutsPerLevel, maxMovesPerTile, new Random(seed * 31 + i));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures)
+            {
+                future.get();
+            }
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        return reports;
+    }
+
+    /**
+     * Plays the playouts of one level.
+     *
+     * @param level            the level to play
+     * @param levelIndex       the index of the level in the pack
+     * @param playouts         the number of playouts to play
+     * @param maxMovesPerTile  the move limit of a playout per tile of the level
+     * @param random           the random generator owned by the calling thread
+     * @return the report for the level
+     */
+    private static LevelReport estimateLevel(Level level, int levelIndex, int playouts, int maxMovesPerTile, Random random)
+    {
+        int tileCount = level.width * level.height;
+
+        // list all valid moves as the tiles they change
+        List<int[]> moveList = new ArrayList<>();
+        for (ClickField field : level.allowedClickFields)
+        {
+            for (int x = -field.getMinX(); x + field.getMaxX() < level.width; x++)
+            {
+                for (int y = -field.getMinY(); y + field.getMaxY() < level.height; y++)
+                {
+                    int[] changed = new int[field.width * field.height];
+                    int changedCount = 0;
+                    for (int i = field.getMinX(); i <= field.getMaxX(); i++)
+                    {
+                        for (int j = field.getMinY(); j <= field.getMaxY(); j++)
+                        {
+                            if (field.getInClickCoordinates(i, j))
+                            {
+                                changed[changedCount++] = (x + i) + level.width * (y + j);
+                            }
+                        }
+                    }
+                    moveList.add(Arrays.copyOf(changed, changedCount));
+                }
+            }
+        }
+        int[][] moves = moveList.toArray(new int[moveList.size()][]);
+
+        // for each tile, list the moves changing it
+        int[] tileMoveCounts = new int[tileCount];
+        for (int[] move : moves)
+        {
+            for (int tile : move)
+            {
+                tileMoveCounts[tile]++;
+            }
+        }
+        int[][] tileMoves = new int[tileCount][];
+        for (int i = 0; i < tileCount; i++)
+        {
+            tileMoves[i] = new int[tileMoveCounts[i]];
+            tileMoveCounts[i] = 0;
+        }
+        for (int i = 0; i < moves.length; i++)
+        {
+            for (int tile : moves[i])
+            {
+                tileMoves[tile][tileMoveCounts[tile]++] = i;
+            }
+        }
+
+        int maxMoves = maxMovesPerTile * tileCount;
+        boolean[] tiles = new boolean[tileCount];
+
+        // gains[i] is the decrease in the number of red tiles when applying the move i
+        int[] gains = new int[moves.length];
+
+        int[] movesToClear = new int[playouts];
+        int cleared = 0;
+        int deadEnds = 0;
+
+        for (int playout = 0; playout < playouts && moves.length != 0; playout++)
+        {
+            System.arraycopy(level.tiles, 0, tiles, 0, tileCount);
+            int redCount = 0;
+            for (boolean tile : tiles)
+            {
+                if (tile)
+                {
+                    redCount++;
+                }
+            }
+
+            // the number of moves with a positive gain, the state is a dead end when there are none
+            int improvingCount = 0;
+            for (int i = 0; i < moves.length; i++)
+            {
+                int gain = 0;
+                for (int tile : moves[i])
+                {
+                    gain += tiles[tile] ? 1 : -1;
+                }
+                gains[i] = gain;
+                if (gain > 0)
+                {
+                    improvingCount++;
+                }
+            }
+
+            boolean hitDeadEnd = false;
+            int movesMade = 0;
+            while (redCount != 0 && movesMade < maxMoves)
+            {
+                if (improvingCount == 0)
+                {
+                    hitDeadEnd = true;
+                }
+
+                // choose the best of a few random moves
+                int chosen = random.nextInt(moves.length);
+                for (int i = 1; i < TOURNAMENT_SIZE; i++)
+                {
+                    int candidate = random.nextInt(moves.length);
+                    if (gains[candidate] > gains[chosen])
+                    {
+                        chosen = candidate;
+                    }
+                }
+
+                // apply the move and update the gains of the moves sharing a tile with it
+                for (int tile : moves[chosen])
+                {
+                    tiles[tile] = !tiles[tile];
+                    redCount += tiles[tile] ? 1 : -1;
+                    int gainChange = tiles[tile] ? 2 : -2;
+                    for (int affected : tileMoves[tile])
+                    {
+                        boolean wasImproving = gains[affected] > 0;
+                        gains[affected] += gainChange;
+                        if (wasImproving != gains[affected] > 0)
+                        {
+                            improvingCount += wasImproving ? -1 : 1;
+                        }
+                    }
+                }
+                movesMade++;
+            }
+
+            if (redCount == 0)
+            {
+                movesToClear[cleared++] = movesMade;
+            }
+            if (hitDeadEnd)
+            {
+                deadEnds++;
+            }
+        }
+
+        int[] sortedMoves = Arrays.copyOf(movesToClear, cleared);
+        Arrays.sort(sortedMoves);
+        return new LevelReport(levelIndex, playouts, cleared, deadEnds, sortedMoves);
+    }
+
+    /**
+     * Writes the reports as comma separated values, one line per level.
+     *
+     * @param reports the reports to write
+     * @param writer  the writer to write to (should be buffered)
+     * @throws IOException if writing fails
+     */
+    public static void writeReport(LevelReport[] reports, Writer writer) throws IOException
+    {
+        writer.write("level,playouts,failRate,deadEndRate,meanMoves,medianMoves,p90Moves,minMoves,maxMoves\n");
+        for (LevelReport report : reports)
+        {
+            writer.write((report.level + 1) + "," + report.playouts + "," + report.getFailRate() + "," + report.getDeadEndRate() + ","
+                    + report.getMeanMoves() + "," + report.getMovesPercentile(50) + "," + report.getMovesPercentile(90) + ","
+                    + report.getMovesPercentile(0) + "," + report.getMovesPercentile(100) + "\n");
+        }
+        writer.flush();
+    }
+}
@@ -0,0 +1,114 @@
+package com.github.mimo31.thedecomposegame;
+
+import android.graphics.Path;
+
+/**
+ * The animation of a tile changing its state - a cover of the new color sweeping over the tile from its bottom right corner.
+ * <p>
+ * The cubic easing curve of PlayActivity.getMovableViewPosition is sampled into a lookup table and the polygon of the cover
+ * is precomputed in the unit square for each of FRAME_COUNT frames, so drawing an animated tile only scales and translates
+ * the cached vertices into a Path without evaluating the curve or allocating.
+ * The instances are immutable, so they can be shared by the UI and the render threads.
+ */
+public class FlipAnimation
+{
+    /**
+     * The number of distinct frames of the animation.
+     */
+    public static final int FRAME_COUNT = 64;
+
+    // the number of intervals the easing curve is sampled in
+    private static final int EASING_STEPS = 256;
+
+    // the eased position at the state i / EASING_STEPS
+    private final float[] easing = new float[EASING_STEPS + 1];
+
+    // the vertices of the cover polygon in the unit square for each frame, as x, y pairs
+    private final float[][] covers = new float[FRAME_COUNT + 1][];
+
+    /**
+     * @param initialSpeed a value corresponding to the rate of change at the beginning of the animation, see PlayActivity.getMovableViewPosition
+     */
+    public FlipAnimation(float initialSpeed)
+    {
+        for (int i = 0; i <= EASING_STEPS; i++)
+        {
+            this.easing[i] = PlayActivity.getMovableViewPosition(i / (float) EASING_STEPS, initialSpeed);
+        }
+        for (int frame = 0; frame <= FRAME_COUNT; frame++)
+        {
+            float fraction = this.getPosition(frame / (float) FRAME_COUNT);
+
+            // the portion of the bottom triangle of the cover
+            float bottomFraction = 2 * Math.min(fraction, 0.5f);
+
+            // if the animation is more than half the way through, the top triangle is covered also
+            if (fraction > 0.5f)
+            {
+                // the portion of the top triangle of the cover
+                float topFraction = 2 * (fraction - 0.5f);
+
+                this.covers[frame] = new float[] { 1 - bottomFraction, 1, 1, 1, 1, 1 - bottomFraction, 1 - topFraction, 0, 0, 1 - topFraction };
+            }
+            else
+            {
+                this.covers[frame] = new float[] { 1 - bottomFraction, 1, 1, 1, 1, 1 - bottomFraction };
+            }
+        }
+    }
+
+    /**
+     * Returns the eased position interpolated from the lookup table.
+     *
+     * @param state the state of the animation from 0.0 to 1.0
+     * @return the position from 0.0 to 1.0
+     */
+    public float getPosition(float state)
+    {
+        if (state <= 0)
+        {
+            return this.easing[0];
+        }
+        if (state >= 1)
+        {
+            return this.easing[EASING_STEPS];
+        }
+        float index = state * EASING_STEPS;
+        int lower = (int) index;
+        float weight = index - lower;
+        return this.easing[lower] + (this.easing[lower + 1] - this.easing[lower]) * weight;
+    }
+
+    /**
+     * @param state the state of the animation from 0.0 to 1.0
+     * @return the nearest frame of the animation, from 0 to FRAME_COUNT
+     */
+    public int getFrame(float state)
+    {
+        return Math.max(0, Math.min(FRAME_COUNT, Math.round(state * FRAME_COUNT)));
+    }
+
+    /**
+     * Adds the cover of a tile in a frame of the animation to a Path as a closed polygon.
+     * The covers of many tiles can be added to the same Path, so that they are drawn at once.
+     *
+     * @param path   the Path to add the cover to
+     * @param frame  the frame of the animation as returned by getFrame
+     * @param left   the x location of the left side of the tile
+     * @param top    the y location of the top side of the tile
+     * @param right  the x location of the right side of the tile
+     * @param bottom the y location of the bottom side of the tile
+     */
+    public void addCover(Path path, int frame, float left, float top, float right, float bottom)
+    {
+        float[] cover = this.covers[frame];
+        float width = right - left;
+        float height = bottom - top;
+        path.moveTo(left + cover[0] * width, top + cover[1] * height);
+        for (int i = 2; i < cover.length; i += 2)
+        {
+            path.lineTo(left + cover[i] * width, top + cover[i + 1] * height);
+        }
+        path.close();
+    }
+}
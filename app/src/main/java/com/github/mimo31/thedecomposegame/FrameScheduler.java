@@ -0,0 +1,103 @@
+package com.github.mimo31.thedecomposegame;
+
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+
+/**
+ * Drives the updating of a View with frames synchronized to the display (Choreographer on API 16+).
+ * Runs only while the callback asks for more frames. When nothing is changing, the callback can ask to be woken after a delay
+ * (e.g. when a timer digit changes) or not at all; the scheduler then stops completely until requestFrame is called again.
+ */
+public class FrameScheduler implements Runnable
+{
+    /**
+     * Returned by Callback.onFrame when another frame is needed right away.
+     */
+    public static final long NEXT_FRAME = 0;
+
+    /**
+     * Returned by Callback.onFrame when no more frames are needed until requestFrame is called.
+     */
+    public static final long IDLE = -1;
+
+    /**
+     * Updates the View for a frame.
+     */
+    public interface Callback
+    {
+        /**
+         * Updates the state of the View for a frame and invalidates it if needed.
+         *
+         * @return NEXT_FRAME if another frame is needed right away, IDLE if no more frames are needed
+         * or the number of milliseconds after which the next frame is needed
+         */
+        long onFrame();
+    }
+
+    // the View whose frames are scheduled
+    private final View view;
+
+    // the callback called every frame
+    private final Callback callback;
+
+    // indicates whether frames should be scheduled at all, false after stop is called
+    private boolean running = false;
+
+    public FrameScheduler(View view, Callback callback)
+    {
+        this.view = view;
+        this.callback = callback;
+    }
+
+    /**
+     * Allows scheduling frames and schedules the first one.
+     */
+    public void start()
+    {
+        this.running = true;
+        this.requestFrame();
+    }
+
+    /**
+     * Stops scheduling frames until start is called.
+     */
+    public void stop()
+    {
+        this.running = false;
+        this.view.removeCallbacks(this);
+    }
+
+    /**
+     * Schedules a frame for the next display refresh, replacing any scheduled frame or delayed wake up.
+     * Should be called whenever something starts to change in the View.
+     */
+    public void requestFrame()
+    {
+        if (!this.running)
+        {
+            return;
+        }
+
+        // drops a possibly scheduled delayed wake up, which would come too late
+        this.view.removeCallbacks(this);
+        ViewCompat.postOnAnimation(this.view, this);
+    }
+
+    @Override
+    public void run()
+    {
+        if (!this.running)
+        {
+            return;
+        }
+        long next = this.callback.onFrame();
+        if (next == NEXT_FRAME)
+        {
+            ViewCompat.postOnAnimation(this.view, this);
+        }
+        else if (next != IDLE)
+        {
+            this.view.postDelayed(this, next);
+        }
+    }
+}
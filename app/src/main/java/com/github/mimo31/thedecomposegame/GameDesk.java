@@ -7,20 +7,31 @@ import android.os.Parcelable;
  * Created by Viktor on 1/22/2016.
  * <p>
  * Handles the data about the tile grid shown to the player including the animations.
+ * <p>
+ * The tile states are packed to bits in row words - every row takes wordsPerRow longs, the tile x of a row is the bit (x % 64) of the word x / 64.
+ * The rows are grouped into blocks of BLOCK_ROWS rows. A GameDesk can be forked and the fork shares all the blocks with the original desk
+ * until one of them writes into a block, at which point the writing desk copies that block (copy-on-write).
+ * So forking a desk costs only the copying of the block references.
  */
 public class GameDesk implements Parcelable
 {
     /**
-     * Describes the state of the tiles.
-     * Accessed by states[x + width * y].
+     * The number of rows in one copy-on-write block.
      */
-    public final boolean[] states;
+    private static final int BLOCK_ROWS = 8;
 
-    /**
-     * Describes whether a tile is being animated.
-     * Accessed by animating[x + width * y]
-     */
-    public final boolean[] animating;
+    // the blocks with the tile states, the row y is stored in blocks[y / BLOCK_ROWS] starting at (y % BLOCK_ROWS) * wordsPerRow
+    private final long[][] blocks;
+
+    // indicates whether the block with the same index is owned only by this desk and can therefore be written without copying
+    private final boolean[] ownedBlocks;
+
+    // the animating flags of the tiles, the row y is stored starting at y * wordsPerRow
+    // allocated on the first animated move
+    private long[] animatingWords;
+
+    // indicates whether the animatingWords are owned only by this desk and can therefore be cleared and written without copying
+    private boolean ownsAnimatingWords = true;
 
     /**
      * The width of the desk - the number of tiles in the x direction.
@@ -32,6 +43,11 @@ public class GameDesk implements Parcelable
      */
     public final int height;
 
+    /**
+     * The number of longs storing one row of the desk.
+     */
+    public final int wordsPerRow;
+
     /**
      * Indicates whether some tiles are currently animated.
      * Should be set back to false when the animationLength is over while drawing.
@@ -52,25 +68,72 @@ public class GameDesk implements Parcelable
     {
         this.width = width;
         this.height = height;
-        this.states = new boolean[width * height];
-        this.animating = new boolean[width * height];
+        this.wordsPerRow = (width + 63) >>> 6;
+        int blockCount = (height + BLOCK_ROWS - 1) / BLOCK_ROWS;
+        this.blocks = new long[blockCount][];
+        this.ownedBlocks = new boolean[blockCount];
+        for (int i = 0; i < blockCount; i++)
+        {
+            this.blocks[i] = new long[BLOCK_ROWS * this.wordsPerRow];
+            this.ownedBlocks[i] = true;
+        }
     }
 
     /**
      * Constructs a new GameDesk with the specified tile states.
-     * Copies the states into a new array, so the passed array remains unchanged.
+     * Copies the states, so the passed array remains unchanged.
      *
      * @param width  width of the tile grid
      * @param height height of the tile grid
-     * @param states the states for the new GameDesk
+     * @param states the states for the new GameDesk, accessed by states[x + width * y]
      */
     public GameDesk(int width, int height, boolean[] states)
     {
-        this.width = width;
-        this.height = height;
-        this.states = new boolean[this.width * this.height];
-        System.arraycopy(states, 0, this.states, 0, width * height);
-        this.animating = new boolean[this.width * this.height];
+        this(width, height);
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                if (states[x + width * y])
+                {
+                    this.blocks[y / BLOCK_ROWS][(y % BLOCK_ROWS) * this.wordsPerRow + (x >>> 6)] |= 1L << x;
+                }
+            }
+        }
+    }
+
+    // constructs a fork of the desk
+    private GameDesk(GameDesk original)
+    {
+        this.width = original.width;
+        this.height = original.height;
+        this.wordsPerRow = original.wordsPerRow;
+        this.blocks = original.blocks.clone();
+        this.ownedBlocks = new boolean[this.blocks.length];
+        this.animatingWords = original.animatingWords;
+        this.isAnimating = original.isAnimating;
+        this.animationBegin = original.animationBegin;
+
+        // the animating flags are shared too, so neither desk can clear them
+        this.ownsAnimatingWords = false;
+        original.ownsAnimatingWords = false;
+
+        // from now on, all the blocks are shared, so neither desk can write into them
+        for (int i = 0; i < original.ownedBlocks.length; i++)
+        {
+            original.ownedBlocks[i] = false;
+        }
+    }
+
+    /**
+     * Creates a copy of the desk which shares the tile states and the animation with this desk until one of the desks is changed.
+     * A fork which is never changed is an immutable snapshot of the desk, which can be read from other threads.
+     *
+     * @return the created fork
+     */
+    public GameDesk fork()
+    {
+        return new GameDesk(this);
     }
 
     /**
@@ -80,7 +143,50 @@ public class GameDesk implements Parcelable
      */
     public boolean state(int x, int y)
     {
-        return this.states[x + this.width * y];
+        return (this.blocks[y / BLOCK_ROWS][(y % BLOCK_ROWS) * this.wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    /**
+     * @param y    the row of the desk
+     * @param word the index of the word in the row
+     * @return the states of the tiles from x = 64 * word to x = 64 * word + 63 as bits of a long; the bits beyond the width of the desk are zero
+     */
+    public long getWord(int y, int word)
+    {
+        return this.blocks[y / BLOCK_ROWS][(y % BLOCK_ROWS) * this.wordsPerRow + word];
+    }
+
+    /**
+     * @param other a desk of the same size
+     * @param y     the row of the desk
+     * @return true if the row is certainly the same in both desks because they share it after forking, false if it may differ
+     */
+    public boolean sharesRow(GameDesk other, int y)
+    {
+        return this.blocks[y / BLOCK_ROWS] == other.blocks[y / BLOCK_ROWS];
+    }
+
+    /**
+     * @param x the x coordinate of the tile
+     * @param y the y coordinate of the tile
+     * @return whether the tile is changed by the last animated move; relevant only when isAnimating is true
+     */
+    public boolean animated(int x, int y)
+    {
+        return this.animatingWords != null && (this.animatingWords[y * this.wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    /**
+     * Checks whether applying a ClickField at a specified location is valid.
+     *
+     * @param field the ClickField to apply
+     * @param x     the x coordinate of the tile to apply the field on
+     * @param y     the y coordinate of the tile to apply the field on
+     * @return whether the application is valid
+     */
+    public boolean canApply(ClickField field, int x, int y)
+    {
+        return x + field.getMinX() >= 0 && y + field.getMinY() >= 0 && x + field.getMaxX() < this.width && y + field.getMaxY() < this.height;
     }
 
     /**
@@ -95,14 +201,8 @@ public class GameDesk implements Parcelable
      */
     public boolean doAttempt(ClickField field, int x, int y)
     {
-        // get the size of the ClickField
-        int fieldMinX = field.getMinX();
-        int fieldMinY = field.getMinY();
-        int fieldMaxX = field.getMaxX();
-        int fieldMaxY = field.getMaxY();
-
         // check whether the application is valid
-        if (x + fieldMinX < 0 || y + fieldMinY < 0 || x + fieldMaxX >= this.width || y + fieldMaxY >= this.height)
+        if (!this.canApply(field, x, y))
         {
             return false;
         }
@@ -112,25 +212,71 @@ public class GameDesk implements Parcelable
         this.animationBegin = System.currentTimeMillis();
 
         // clear any old animations
-        for (int i = 0, n = this.width * this.height; i < n; i++)
+        if (this.animatingWords == null || !this.ownsAnimatingWords)
+        {
+            this.animatingWords = new long[this.height * this.wordsPerRow];
+            this.ownsAnimatingWords = true;
+        }
+        else
         {
-            this.animating[i] = false;
+            for (int i = 0; i < this.animatingWords.length; i++)
+            {
+                this.animatingWords[i] = 0;
+            }
         }
 
         // apply the ClickField - change the state and animation state of the corresponding tiles
-        for (int i = fieldMinX; i <= fieldMaxX; i++)
+        this.flipField(field, x, y, true);
+        return true;
+    }
+
+    /**
+     * Checks whether applying a ClickField at a specified location is valid and if yes, applies it without starting an animation.
+     * Meant for desks which are not drawn (forks, replays).
+     *
+     * @param field the ClickField to apply
+     * @param x     the x coordinate of the tile to apply the field on
+     * @param y     the y coordinate of the tile to apply the field on
+     * @return whether the application was valid - whether the ClickField was applied
+     */
+    public boolean applyField(ClickField field, int x, int y)
+    {
+        if (!this.canApply(field, x, y))
+        {
+            return false;
+        }
+        this.flipField(field, x, y, false);
+        return true;
+    }
+
+    // flips the tiles of a ClickField applied at a valid location, optionally marking them as animated
+    private void flipField(ClickField field, int x, int y, boolean animate)
+    {
+        for (int j = field.getMinY(), maxY = field.getMaxY(); j <= maxY; j++)
         {
-            for (int j = fieldMinY; j <= fieldMaxY; j++)
+            int row = y + j;
+            int block = row / BLOCK_ROWS;
+            if (!this.ownedBlocks[block])
+            {
+                // the block is shared with a fork, copy it before writing
+                this.blocks[block] = this.blocks[block].clone();
+                this.ownedBlocks[block] = true;
+            }
+            long[] blockWords = this.blocks[block];
+            int rowStart = (row % BLOCK_ROWS) * this.wordsPerRow;
+            for (int i = field.getMinX(), maxX = field.getMaxX(); i <= maxX; i++)
             {
                 if (field.getInClickCoordinates(i, j))
                 {
-                    int index = (i + x) + this.width * (j + y);
-                    this.states[index] = !this.states[index];
-                    this.animating[index] = true;
+                    int column = x + i;
+                    blockWords[rowStart + (column >>> 6)] ^= 1L << column;
+                    if (animate)
+                    {
+                        this.animatingWords[row * this.wordsPerRow + (column >>> 6)] |= 1L << column;
+                    }
                 }
             }
         }
-        return true;
     }
 
     /**
@@ -138,46 +284,97 @@ public class GameDesk implements Parcelable
      */
     public boolean isCleared()
     {
-        for (int i = 0, n = this.width * this.height; i < n; i++)
+        for (long[] block : this.blocks)
         {
-            if (this.states[i])
+            for (long word : block)
             {
-                return false;
+                if (word != 0)
+                {
+                    return false;
+                }
             }
         }
         return true;
     }
 
     // parcelling implementation here and under
+    // the tiles are parcelled packed to bits, so that big desks do not bloat the saved instance state
 
     protected GameDesk(Parcel in)
     {
-        this.states = in.createBooleanArray();
-        this.width = in.readInt();
-        this.height = in.readInt();
+        this(in.readInt(), in.readInt());
+        this.readBits(in.createByteArray(), false);
         this.isAnimating = in.readByte() != 0;
         if (this.isAnimating)
         {
             this.animationBegin = in.readLong();
-            this.animating = in.createBooleanArray();
-        }
-        else
-        {
-            this.animating = new boolean[this.width * this.height];
+            this.animatingWords = new long[this.height * this.wordsPerRow];
+            this.readBits(in.createByteArray(), true);
         }
     }
 
     @Override
     public void writeToParcel(Parcel dest, int flags)
     {
-        dest.writeBooleanArray(this.states);
         dest.writeInt(this.width);
         dest.writeInt(this.height);
+        dest.writeByteArray(this.writeBits(false));
         dest.writeByte((byte) (this.isAnimating ? 1 : 0));
         if (this.isAnimating)
         {
             dest.writeLong(this.animationBegin);
-            dest.writeBooleanArray(this.animating);
+            dest.writeByteArray(this.writeBits(true));
+        }
+    }
+
+    /**
+     * Packs the states or the animating flags of the tiles to bytes, eight tiles per byte.
+     *
+     * @param animating whether to pack the animating flags instead of the states
+     * @return the packed bytes, the tile i = x + width * y is the bit (i % 8) of the byte i / 8
+     */
+    private byte[] writeBits(boolean animating)
+    {
+        byte[] packed = new byte[(this.width * this.height + 7) / 8];
+        for (int y = 0; y < this.height; y++)
+        {
+            for (int x = 0; x < this.width; x++)
+            {
+                if (animating ? this.animated(x, y) : this.state(x, y))
+                {
+                    int i = x + this.width * y;
+                    packed[i >> 3] |= 1 << (i & 7);
+                }
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * Unpacks the states or the animating flags of the tiles packed by the writeBits method.
+     *
+     * @param packed    the packed bytes
+     * @param animating whether to unpack the animating flags instead of the states
+     */
+    private void readBits(byte[] packed, boolean animating)
+    {
+        for (int y = 0; y < this.height; y++)
+        {
+            for (int x = 0; x < this.width; x++)
+            {
+                int i = x + this.width * y;
+                if ((packed[i >> 3] & (1 << (i & 7))) != 0)
+                {
+                    if (animating)
+                    {
+                        this.animatingWords[y * this.wordsPerRow + (x >>> 6)] |= 1L << x;
+                    }
+                    else
+                    {
+                        this.blocks[y / BLOCK_ROWS][(y % BLOCK_ROWS) * this.wordsPerRow + (x >>> 6)] |= 1L << x;
+                    }
+                }
+            }
         }
     }
 
@@ -0,0 +1,551 @@
+package com.github.mimo31.thedecomposegame;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Draws the tile grid of a GameDesk.
+ * <p>
+ * Keeps a cached image of the grid without the animations (but including the ghost of the best run and the grid lines),
+ * so that a frame only needs to draw the image and the tiles of the running animation.
+ * <p>
+ * Big grids are drawn in the pixel mode - the image has one pixel per tile and is written directly from the packed words of the desk,
+ * so no drawRect is needed per tile. The image is then drawn scaled without filtering, so the tiles stay sharp.
+ * The ghost is blended into the color of the pixel and the grid lines are drawn over the image only when the tiles are big enough to see them.
+ * <p>
+ * Outside of the pixel mode, the horizontal runs of the tiles with the same state are found from the packed words
+ * and drawn as single rectangles, so a mostly cleared grid takes only a few draw calls.
+ * <p>
+ * The grid can be drawn zoomed. The cached image stays at the unzoomed size and a zoomed grid is drawn culled to the visible tiles -
+ * in the pixel mode by scaling only the visible part of the image, otherwise by drawing the visible tiles directly,
+ * so the cost of a frame is proportional to the number of visible tiles.
+ * <p>
+ * The renderer is not thread-safe, every thread drawing a grid uses its own renderer.
+ */
+public class GridRenderer
+{
+    // the translucent colors of the ghost of the best run drawn over the tiles
+    private static final int ghostGoodColor = Color.argb(160, 0, 0, 255);
+    private static final int ghostBadColor = Color.argb(160, 255, 0, 0);
+
+    // the colors of the tiles in the pixel mode where the ghost differs from the tile
+    private static final int ghostOverGoodColor = blend(ghostBadColor, PlayActivity.goodColor);
+    private static final int ghostOverBadColor = blend(ghostGoodColor, PlayActivity.badColor);
+
+    /**
+     * The smallest number of tiles of a grid drawn in the pixel mode.
+     */
+    private static final int PIXEL_MODE_MIN_TILES = 64 * 64;
+
+    /**
+     * The smallest size of a tile in pixels for which the grid lines are drawn.
+     */
+    private static final float MIN_LINED_TILE_SIZE = 6;
+
+    private final Paint p = new Paint();
+
+    // the paths collecting the animated tiles of one color, so that each color is drawn by a single drawPath call
+    private final Path goodAnimationPath = new Path();
+    private final Path badAnimationPath = new Path();
+
+    // the color of the lines between the tiles
+    private final int lineColor;
+
+    private int tilesInWidth;
+    private int tilesInHeight;
+    private float tileSize;
+
+    // the cached image of the grid, null until first drawn after a change of the size
+    private Bitmap image;
+
+    // the canvas drawing into the image
+    private Canvas imageCanvas;
+
+    // the space around the grid in the image, so that the grid lines on the edges are not cut off
+    private int padding;
+
+    // whether the image has one pixel per tile
+    private boolean pixelMode;
+
+    // the pixels of the image in the pixel mode, the tile (x, y) is at x + tilesInWidth * y
+    private int[] pixels;
+
+    // the endpoints of the grid lines drawn by one drawLines call, grown when needed
+    private float[] lineBuffer = new float[64];
+
+    // the paint drawing the image in the pixel mode, without filtering
+    private final Paint imagePaint = new Paint();
+
+    // the part of the image drawn in the pixel mode
+    private final Rect imagePart = new Rect();
+
+    // the bounds the image is drawn scaled to in the pixel mode
+    private final RectF imageBounds = new RectF();
+
+    // the zoom the grid is drawn with
+    private float zoom = 1;
+
+    // the statistics of merging the runs of tiles with the same state, shown in the debug overlay
+    private long tilesDrawn;
+    private long tileRectsDrawn;
+
+    // the statistics of batching the animated tiles, shown in the debug overlay
+    private long animatedTilesDrawn;
+    private long animationPathsDrawn;
+
+    public GridRenderer(int lineColor)
+    {
+        this.lineColor = lineColor;
+        this.goodAnimationPath.setFillType(Path.FillType.EVEN_ODD);
+        this.badAnimationPath.setFillType(Path.FillType.EVEN_ODD);
+        this.imagePaint.setFilterBitmap(false);
+    }
+
+    /**
+     * @param top    the color to draw over the bottom color, possibly translucent
+     * @param bottom an opaque color
+     * @return the opaque color resulting from drawing the top color over the bottom color
+     */
+    private static int blend(int top, int bottom)
+    {
+        int alpha = Color.alpha(top);
+        return Color.rgb((Color.red(top) * alpha + Color.red(bottom) * (255 - alpha)) / 255,
+                (Color.green(top) * alpha + Color.green(bottom) * (255 - alpha)) / 255,
+                (Color.blue(top) * alpha + Color.blue(bottom) * (255 - alpha)) / 255);
+    }
+
+    /**
+     * Sets the size of the drawn grid. Drops the cached image if the size changes.
+     *
+     * @param tilesInWidth  the number of tiles in the x direction
+     * @param tilesInHeight the number of tiles in the y direction
+     * @param tileSize      the size of one tile in pixels
+     */
+    public void setSize(int tilesInWidth, int tilesInHeight, float tileSize)
+    {
+        if (this.tilesInWidth == tilesInWidth && this.tilesInHeight == tilesInHeight && this.tileSize == tileSize)
+        {
+            return;
+        }
+        this.tilesInWidth = tilesInWidth;
+        this.tilesInHeight = tilesInHeight;
+        this.tileSize = tileSize;
+        this.image = null;
+        this.imageCanvas = null;
+        this.pixels = null;
+        this.pixelMode = tilesInWidth * tilesInHeight >= PIXEL_MODE_MIN_TILES;
+    }
+
+    /**
+     * Sets the zoom the grid is drawn with by drawImage and drawAnimation. The cached image is not affected.
+     *
+     * @param zoom the zoom, at least 1
+     */
+    public void setZoom(float zoom)
+    {
+        this.zoom = zoom;
+    }
+
+    /**
+     * @return whether the cached image exists, so that it can be updated by drawing only the changed tiles
+     */
+    public boolean hasImage()
+    {
+        return this.image != null;
+    }
+
+    /**
+     * Redraws the whole cached image, creating it if needed.
+     *
+     * @param desk      the desk to draw
+     * @param ghostDesk the desk of the ghost run or null if there is no ghost
+     */
+    public void redrawImage(GameDesk desk, GameDesk ghostDesk)
+    {
+        if (this.pixelMode)
+        {
+            if (this.image == null)
+            {
+                this.image = Bitmap.createBitmap(this.tilesInWidth, this.tilesInHeight, Bitmap.Config.ARGB_8888);
+                this.pixels = new int[this.tilesInWidth * this.tilesInHeight];
+            }
+            for (int y = 0; y < this.tilesInHeight; y++)
+            {
+                this.writeRowPixels(desk, ghostDesk, y);
+            }
+            this.image.setPixels(this.pixels, 0, this.tilesInWidth, 0, 0, this.tilesInWidth, this.tilesInHeight);
+            return;
+        }
+        if (this.image == null)
+        {
+            this.padding = (int) Math.ceil(this.tileSize / 64) + 1;
+            int imageWidth = (int) Math.ceil(this.tilesInWidth * this.tileSize) + 2 * this.padding;
+            int imageHeight = (int) Math.ceil(this.tilesInHeight * this.tileSize) + 2 * this.padding;
+            this.image = Bitmap.createBitmap(imageWidth, imageHeight, Bitmap.Config.ARGB_8888);
+            this.imageCanvas = new Canvas(this.image);
+        }
+        this.image.eraseColor(Color.TRANSPARENT);
+        this.drawTiles(desk, ghostDesk, 0, 0, this.tilesInWidth - 1, this.tilesInHeight - 1);
+    }
+
+    /**
+     * Draws the specified tiles (without animations) into the cached image including the ghost and the grid lines around them.
+     * The image has to exist.
+     *
+     * @param desk      the desk to draw
+     * @param ghostDesk the desk of the ghost run or null if there is no ghost
+     * @param minX      the lowest x coordinate of the tiles
+     * @param minY      the lowest y coordinate of the tiles
+     * @param maxX      the highest x coordinate of the tiles
+     * @param maxY      the highest y coordinate of the tiles
+     */
+    public void drawTiles(GameDesk desk, GameDesk ghostDesk, int minX, int minY, int maxX, int maxY)
+    {
+        if (this.pixelMode)
+        {
+            for (int y = minY; y <= maxY; y++)
+            {
+                this.writeRowPixels(desk, ghostDesk, y);
+            }
+            this.image.setPixels(this.pixels, minX + this.tilesInWidth * minY, this.tilesInWidth, minX, minY, maxX - minX + 1, maxY - minY + 1);
+            return;
+        }
+        this.drawTileRuns(this.imageCanvas, this.padding, this.padding, this.tileSize, desk, ghostDesk, minX, minY, maxX, maxY);
+        this.drawGridLines(this.imageCanvas, this.padding, this.padding, this.tileSize, minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Draws the specified tiles including the ghost, the horizontal runs of the tiles with the same state as single rectangles.
+     *
+     * @param canvas    the canvas to draw on
+     * @param originX   the x location of the top left corner of the grid on the canvas
+     * @param originY   the y location of the top left corner of the grid on the canvas
+     * @param tileSize  the size of a tile on the canvas
+     * @param desk      the desk to draw
+     * @param ghostDesk the desk of the ghost run or null if there is no ghost
+     * @param minX      the lowest x coordinate of the tiles
+     * @param minY      the lowest y coordinate of the tiles
+     * @param maxX      the highest x coordinate of the tiles
+     * @param maxY      the highest y coordinate of the tiles
+     */
+    private void drawTileRuns(Canvas canvas, int originX, int originY, float tileSize, GameDesk desk, GameDesk ghostDesk, int minX, int minY, int maxX, int maxY)
+    {
+        float ghostInset = tileSize / 4;
+        for (int j = minY; j <= maxY; j++)
+        {
+            int rectStartY = originY + (int) (j * tileSize);
+
+            // the runs of the tiles with the same state are drawn as single rectangles
+            for (int runStart = minX; runStart <= maxX; )
+            {
+                boolean state = desk.state(runStart, j);
+                int runEnd = Math.min(this.findStateChange(desk, j, runStart, state), maxX + 1);
+                this.p.setColor(state ? PlayActivity.badColor : PlayActivity.goodColor);
+                canvas.drawRect(originX + (int) (runStart * tileSize), rectStartY,
+                        originX + (int) ((runEnd - 1) * tileSize) + tileSize, rectStartY + tileSize, this.p);
+                this.tileRectsDrawn++;
+                runStart = runEnd;
+            }
+            this.tilesDrawn += maxX - minX + 1;
+
+            // the ghost of the best run is drawn over the tiles where it differs from the current grid
+            for (int word = minX >>> 6; ghostDesk != null && word <= maxX >>> 6; word++)
+            {
+                long states = desk.getWord(j, word);
+                long differences = states ^ ghostDesk.getWord(j, word);
+                while (differences != 0)
+                {
+                    int i = (word << 6) + Long.numberOfTrailingZeros(differences);
+                    differences &= differences - 1;
+                    if (i < minX || i > maxX)
+                    {
+                        continue;
+                    }
+                    int rectStartX = originX + (int) (i * tileSize);
+                    this.p.setColor((states & (1L << i)) != 0 ? ghostGoodColor : ghostBadColor);
+                    canvas.drawRect(rectStartX + ghostInset, rectStartY + ghostInset, rectStartX + 3 * ghostInset, rectStartY + 3 * ghostInset, this.p);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the end of a run of tiles with the same state in a row, skipping whole words of the run at once.
+     *
+     * @param desk  the desk to search
+     * @param y     the row of the run
+     * @param x     the x coordinate of the first tile of the run
+     * @param state the state of the tiles of the run
+     * @return the x coordinate of the first tile after x with a different state or the width of the desk if there is none
+     */
+    private int findStateChange(GameDesk desk, int y, int x, boolean state)
+    {
+        // the bits of the tiles with the other state, starting from x
+        int word = x >>> 6;
+        long other = (state ? ~desk.getWord(y, word) : desk.getWord(y, word)) & (-1L << x);
+        while (other == 0)
+        {
+            word++;
+            if (word == desk.wordsPerRow)
+            {
+                return desk.width;
+            }
+            other = state ? ~desk.getWord(y, word) : desk.getWord(y, word);
+        }
+        return Math.min((word << 6) + Long.numberOfTrailingZeros(other), desk.width);
+    }
+
+    /**
+     * @return the number of tiles drawn into the cached image outside of the pixel mode since the renderer was created
+     */
+    public long getTilesDrawn()
+    {
+        return this.tilesDrawn;
+    }
+
+    /**
+     * @return the number of rectangles the tiles counted by getTilesDrawn were drawn with
+     */
+    public long getTileRectsDrawn()
+    {
+        return this.tileRectsDrawn;
+    }
+
+    /**
+     * @return the number of animated tiles drawn since the renderer was created, counted once per frame
+     */
+    public long getAnimatedTilesDrawn()
+    {
+        return this.animatedTilesDrawn;
+    }
+
+    /**
+     * @return the number of drawPath calls the tiles counted by getAnimatedTilesDrawn were drawn with
+     */
+    public long getAnimationPathsDrawn()
+    {
+        return this.animationPathsDrawn;
+    }
+
+    /**
+     * Draws the tiles which differ between the previously drawn desks and the new desks into the cached image.
+     * The rows the desks share since forking are skipped without comparing, so the cost is proportional to the changed rows.
+     * The image has to exist and contain the previous desks.
+     *
+     * @param previousDesk      the desk drawn in the image
+     * @param previousGhostDesk the desk of the ghost run drawn in the image, null exactly when ghostDesk is null
+     * @param desk              the desk to draw
+     * @param ghostDesk         the desk of the ghost run to draw or null if there is no ghost
+     */
+    public void drawChangedTiles(GameDesk previousDesk, GameDesk previousGhostDesk, GameDesk desk, GameDesk ghostDesk)
+    {
+        for (int y = 0; y < this.tilesInHeight; y++)
+        {
+            if (desk.sharesRow(previousDesk, y) && (ghostDesk == null || ghostDesk.sharesRow(previousGhostDesk, y)))
+            {
+                continue;
+            }
+            if (this.pixelMode)
+            {
+                // rewriting the whole row from the words is as cheap as finding the changed tiles
+                this.writeRowPixels(desk, ghostDesk, y);
+                this.image.setPixels(this.pixels, this.tilesInWidth * y, this.tilesInWidth, 0, y, this.tilesInWidth, 1);
+                continue;
+            }
+            for (int word = 0; word < desk.wordsPerRow; word++)
+            {
+                long changed = desk.getWord(y, word) ^ previousDesk.getWord(y, word);
+                if (ghostDesk != null)
+                {
+                    changed |= ghostDesk.getWord(y, word) ^ previousGhostDesk.getWord(y, word);
+                }
+                while (changed != 0)
+                {
+                    int x = (word << 6) + Long.numberOfTrailingZeros(changed);
+                    changed &= changed - 1;
+                    this.drawTiles(desk, ghostDesk, x, y, x, y);
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws the grid with the set zoom, culled to the visible tiles. Draws the cached image, which has to exist,
+     * unless the grid is zoomed outside of the pixel mode.
+     *
+     * @param canvas      the canvas to draw on
+     * @param gridCornerX the x location of the top left corner of the zoomed grid on the canvas
+     * @param gridCornerY the y location of the top left corner of the zoomed grid on the canvas
+     * @param visible     the part of the canvas where the grid can be seen
+     * @param desk        the desk to draw, the same as in the cached image
+     * @param ghostDesk   the desk of the ghost run or null if there is no ghost
+     */
+    public void drawImage(Canvas canvas, int gridCornerX, int gridCornerY, Rect visible, GameDesk desk, GameDesk ghostDesk)
+    {
+        if (this.zoom == 1 && !this.pixelMode)
+        {
+            canvas.drawBitmap(this.image, gridCornerX - this.padding, gridCornerY - this.padding, null);
+            return;
+        }
+
+        // the range of the tiles intersecting the visible part
+        float drawnTileSize = this.tileSize * this.zoom;
+        int minX = Math.max(0, (int) Math.floor((visible.left - gridCornerX) / drawnTileSize));
+        int minY = Math.max(0, (int) Math.floor((visible.top - gridCornerY) / drawnTileSize));
+        int maxX = Math.min(this.tilesInWidth - 1, (int) Math.floor((visible.right - 1 - gridCornerX) / drawnTileSize));
+        int maxY = Math.min(this.tilesInHeight - 1, (int) Math.floor((visible.bottom - 1 - gridCornerY) / drawnTileSize));
+        if (minX > maxX || minY > maxY)
+        {
+            return;
+        }
+
+        if (this.pixelMode)
+        {
+            this.imagePart.set(minX, minY, maxX + 1, maxY + 1);
+            this.imageBounds.set(gridCornerX + minX * drawnTileSize, gridCornerY + minY * drawnTileSize,
+                    gridCornerX + (maxX + 1) * drawnTileSize, gridCornerY + (maxY + 1) * drawnTileSize);
+            canvas.drawBitmap(this.image, this.imagePart, this.imageBounds, this.imagePaint);
+        }
+        else
+        {
+            this.drawTileRuns(canvas, gridCornerX, gridCornerY, drawnTileSize, desk, ghostDesk, minX, minY, maxX, maxY);
+        }
+        this.drawGridLines(canvas, gridCornerX, gridCornerY, drawnTileSize, minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Writes the colors of the tiles of a row into the pixels, one word of the desk at a time.
+     *
+     * @param desk      the desk to draw
+     * @param ghostDesk the desk of the ghost run or null if there is no ghost
+     * @param y         the row to write
+     */
+    private void writeRowPixels(GameDesk desk, GameDesk ghostDesk, int y)
+    {
+        int rowStart = this.tilesInWidth * y;
+        for (int word = 0; word < desk.wordsPerRow; word++)
+        {
+            long states = desk.getWord(y, word);
+            long ghostDifferences = ghostDesk == null ? 0 : states ^ ghostDesk.getWord(y, word);
+            int firstX = word << 6;
+            int lastX = Math.min(firstX + 64, this.tilesInWidth);
+            for (int x = firstX; x < lastX; x++)
+            {
+                long bit = 1L << x;
+                if ((states & bit) != 0)
+                {
+                    this.pixels[rowStart + x] = (ghostDifferences & bit) != 0 ? ghostOverBadColor : PlayActivity.badColor;
+                }
+                else
+                {
+                    this.pixels[rowStart + x] = (ghostDifferences & bit) != 0 ? ghostOverGoodColor : PlayActivity.goodColor;
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws the animated tiles of the desk over the grid, including the grid lines over them.
+     * <p>
+     * An animated tile shows the old color with a cover of the new color. Both parts of all the tiles are collected into one even-odd
+     * Path per color - the old color as the tile with the cover cut out - so all the animated tiles take two drawPath calls.
+     * The tiles do not overlap, as each spans from its own pixel-aligned start to the start of the next tile.
+     *
+     * @param canvas            the canvas to draw on
+     * @param gridCornerX       the x location of the top left corner of the grid on the canvas
+     * @param gridCornerY       the y location of the top left corner of the grid on the canvas
+     * @param desk              the animating desk
+     * @param animationState    the state of the animation from 0.0 to 1.0
+     * @param minX              the lowest x coordinate of the tiles which can be animated
+     * @param minY              the lowest y coordinate of the tiles which can be animated
+     * @param maxX              the highest x coordinate of the tiles which can be animated
+     * @param maxY              the highest y coordinate of the tiles which can be animated
+     */
+    public void drawAnimation(Canvas canvas, int gridCornerX, int gridCornerY, GameDesk desk, float animationState, int minX, int minY, int maxX, int maxY)
+    {
+        float tileSize = this.tileSize * this.zoom;
+        int frame = PlayActivity.tileFlip.getFrame(animationState);
+        this.goodAnimationPath.rewind();
+        this.badAnimationPath.rewind();
+        for (int i = minX; i <= maxX; i++)
+        {
+            int rectStartX = (int) (gridCornerX + i * tileSize);
+            int rectEndX = (int) (gridCornerX + (i + 1) * tileSize);
+            for (int j = minY; j <= maxY; j++)
+            {
+                if (!desk.animated(i, j))
+                {
+                    continue;
+                }
+                int rectStartY = (int) (gridCornerY + j * tileSize);
+                int rectEndY = (int) (gridCornerY + (j + 1) * tileSize);
+
+                // the new color covers the old one
+                boolean state = desk.state(i, j);
+                Path oldColorPath = state ? this.goodAnimationPath : this.badAnimationPath;
+                Path newColorPath = state ? this.badAnimationPath : this.goodAnimationPath;
+                oldColorPath.addRect(rectStartX, rectStartY, rectEndX, rectEndY, Path.Direction.CW);
+                PlayActivity.tileFlip.addCover(oldColorPath, frame, rectStartX, rectStartY, rectEndX, rectEndY);
+                PlayActivity.tileFlip.addCover(newColorPath, frame, rectStartX, rectStartY, rectEndX, rectEndY);
+                this.animatedTilesDrawn++;
+            }
+        }
+        this.p.setColor(PlayActivity.goodColor);
+        canvas.drawPath(this.goodAnimationPath, this.p);
+        this.p.setColor(PlayActivity.badColor);
+        canvas.drawPath(this.badAnimationPath, this.p);
+        this.animationPathsDrawn += 2;
+
+        // the grid lines go over the animated tiles
+        this.drawGridLines(canvas, gridCornerX, gridCornerY, tileSize, minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Draws the empty lines of the grid around the specified tiles with a single drawLines call if the tiles are big enough to see them.
+     *
+     * @param canvas   the canvas to draw on
+     * @param originX  the x location of the top left corner of the grid on the canvas
+     * @param originY  the y location of the top left corner of the grid on the canvas
+     * @param tileSize the size of a tile on the canvas
+     * @param minX     the lowest x coordinate of the tiles
+     * @param minY     the lowest y coordinate of the tiles
+     * @param maxX     the highest x coordinate of the tiles
+     * @param maxY     the highest y coordinate of the tiles
+     */
+    private void drawGridLines(Canvas canvas, int originX, int originY, float tileSize, int minX, int minY, int maxX, int maxY)
+    {
+        if (tileSize < MIN_LINED_TILE_SIZE)
+        {
+            // the lines would not be seen
+            return;
+        }
+        int lineCount = (maxX - minX + 2) + (maxY - minY + 2);
+        if (this.lineBuffer.length < 4 * lineCount)
+        {
+            this.lineBuffer = new float[8 * lineCount];
+        }
+        int n = 0;
+        for (int i = minX; i <= maxX + 1; i++)
+        {
+            this.lineBuffer[n++] = originX + i * tileSize;
+            this.lineBuffer[n++] = originY + minY * tileSize;
+            this.lineBuffer[n++] = originX + i * tileSize;
+            this.lineBuffer[n++] = originY + (maxY + 1) * tileSize;
+        }
+        for (int i = minY; i <= maxY + 1; i++)
+        {
+            this.lineBuffer[n++] = originX + minX * tileSize;
+            this.lineBuffer[n++] = originY + i * tileSize;
+            this.lineBuffer[n++] = originX + (maxX + 1) * tileSize;
+            this.lineBuffer[n++] = originY + i * tileSize;
+        }
+        this.p.setColor(this.lineColor);
+        this.p.setStrokeWidth(tileSize / 32);
+        canvas.drawLines(this.lineBuffer, 0, n, this.p);
+    }
+}
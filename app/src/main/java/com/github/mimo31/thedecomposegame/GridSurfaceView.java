@@ -0,0 +1,287 @@
+package com.github.mimo31.thedecomposegame;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+/**
+ * Draws the tile grid of big desks on a separate render thread, so that redrawing many tiles does not block the UI thread.
+ * <p>
+ * The UI thread publishes immutable Frames with forks of the desks; the render thread only ever reads the last published Frame.
+ * The render thread keeps its own cached image of the grid and brings it up to date by redrawing only the rows
+ * which are not shared by the forks of the previously drawn Frame and the new Frame.
+ */
+public class GridSurfaceView extends SurfaceView implements SurfaceHolder.Callback, Runnable
+{
+    /**
+     * An immutable description of the grid to draw. The desks must not be changed after the Frame is published.
+     */
+    public static class Frame
+    {
+        // the desk to draw, a fork owned by the Frame
+        final GameDesk desk;
+
+        // the desk of the ghost run, a fork owned by the Frame, or null if there is no ghost
+        final GameDesk ghostDesk;
+
+        // the size of one tile in pixels without the zoom
+        final float tileSize;
+
+        // the zoom the grid is drawn with
+        final float zoom;
+
+        // the location of the top left corner of the zoomed grid
+        final int gridCornerX;
+        final int gridCornerY;
+
+        // the part of the surface where the grid can be seen
+        final int visibleLeft;
+        final int visibleTop;
+        final int visibleRight;
+        final int visibleBottom;
+
+        // the tiles which can be animated
+        final int animatedMinX;
+        final int animatedMinY;
+        final int animatedMaxX;
+        final int animatedMaxY;
+
+        public Frame(GameDesk desk, GameDesk ghostDesk, float tileSize, float zoom, int gridCornerX, int gridCornerY, Rect visible,
+                     int animatedMinX, int animatedMinY, int animatedMaxX, int animatedMaxY)
+        {
+            this.desk = desk;
+            this.ghostDesk = ghostDesk;
+            this.tileSize = tileSize;
+            this.zoom = zoom;
+            this.gridCornerX = gridCornerX;
+            this.gridCornerY = gridCornerY;
+            this.visibleLeft = visible.left;
+            this.visibleTop = visible.top;
+            this.visibleRight = visible.right;
+            this.visibleBottom = visible.bottom;
+            this.animatedMinX = animatedMinX;
+            this.animatedMinY = animatedMinY;
+            this.animatedMaxX = animatedMaxX;
+            this.animatedMaxY = animatedMaxY;
+        }
+
+        // whether the grid can be updated from the other Frame by drawing only the changed tiles
+        private boolean isCompatible(Frame other)
+        {
+            return this.tileSize == other.tileSize && this.desk.width == other.desk.width && this.desk.height == other.desk.height
+                    && (this.ghostDesk == null) == (other.ghostDesk == null);
+        }
+    }
+
+    // the color around the grid and between the tiles
+    private final int backgroundColor;
+
+    // the renderer used only by the render thread
+    private final GridRenderer renderer;
+
+    // guards the fields shared with the render thread
+    private final Object lock = new Object();
+
+    // the last published Frame, null if there is nothing to draw
+    private Frame pendingFrame;
+
+    // indicates whether the surface has been (re)created or resized, so the whole grid has to be drawn
+    private boolean surfaceChanged;
+
+    // the number of milliseconds after which the render thread tries to lock the canvas again if the surface was not ready
+    private static final long SURFACE_RETRY_DELAY = 100;
+
+    // indicates whether the render thread should keep running
+    private boolean running;
+
+    private Thread renderThread;
+
+    // the visible part of the drawn Frame, used only by the render thread
+    private final Rect visible = new Rect();
+
+    public GridSurfaceView(Context context, int backgroundColor)
+    {
+        super(context);
+        this.backgroundColor = backgroundColor;
+        this.renderer = new GridRenderer(backgroundColor);
+        this.getHolder().addCallback(this);
+    }
+
+    /**
+     * Hands a Frame over to the render thread. Frames published before the previous one is drawn are dropped.
+     * Can be called from the UI thread at any time, including when there is no surface.
+     *
+     * @param frame the Frame to draw or null to draw nothing until the next Frame is published
+     */
+    public void publish(Frame frame)
+    {
+        synchronized (this.lock)
+        {
+            this.pendingFrame = frame;
+            this.lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder)
+    {
+        synchronized (this.lock)
+        {
+            this.running = true;
+            this.surfaceChanged = true;
+        }
+        this.renderThread = new Thread(this, "GridRenderThread");
+        this.renderThread.start();
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height)
+    {
+        synchronized (this.lock)
+        {
+            this.surfaceChanged = true;
+            this.lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder)
+    {
+        synchronized (this.lock)
+        {
+            this.running = false;
+            this.lock.notifyAll();
+        }
+
+        // the surface must not be used after this method returns, so wait for the render thread to finish
+        boolean joined = false;
+        while (!joined)
+        {
+            try
+            {
+                this.renderThread.join();
+                joined = true;
+            }
+            catch (InterruptedException e)
+            {
+                // try again
+            }
+        }
+        this.renderThread = null;
+    }
+
+    /**
+     * The loop of the render thread. Draws whenever a new Frame is published, the surface changes or an animation is running,
+     * otherwise waits.
+     */
+    @Override
+    public void run()
+    {
+        SurfaceHolder holder = this.getHolder();
+
+        // the Frame whose desks are in the cached image of the renderer
+        Frame drawnFrame = null;
+
+        // whether the last drawn frame contained a running animation, so the next one has to be drawn too
+        boolean animationDrawn = false;
+
+        while (true)
+        {
+            Frame frame;
+            boolean redrawAll;
+            synchronized (this.lock)
+            {
+                while (this.running && !this.surfaceChanged && this.pendingFrame == drawnFrame && !animationDrawn)
+                {
+                    try
+                    {
+                        this.lock.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+                if (!this.running)
+                {
+                    return;
+                }
+                frame = this.pendingFrame;
+                redrawAll = this.surfaceChanged;
+                this.surfaceChanged = false;
+            }
+
+            Canvas canvas = holder.lockCanvas();
+            if (canvas == null)
+            {
+                // the surface is not ready, keep the full redraw and try again when surfaceChanged announces it
+                // or after a while, so the thread does not spin on lockCanvas while a new Frame is pending
+                animationDrawn = false;
+                synchronized (this.lock)
+                {
+                    this.surfaceChanged = true;
+                    if (this.running)
+                    {
+                        try
+                        {
+                            this.lock.wait(SURFACE_RETRY_DELAY);
+                        }
+                        catch (InterruptedException e)
+                        {
+                            return;
+                        }
+                    }
+                }
+                continue;
+            }
+            try
+            {
+                canvas.drawColor(this.backgroundColor);
+                animationDrawn = false;
+                if (frame == null)
+                {
+                    drawnFrame = null;
+                    continue;
+                }
+
+                // bring the cached image up to date
+                this.renderer.setSize(frame.desk.width, frame.desk.height, frame.tileSize);
+                if (redrawAll || drawnFrame == null || !this.renderer.hasImage() || !frame.isCompatible(drawnFrame))
+                {
+                    this.renderer.redrawImage(frame.desk, frame.ghostDesk);
+                }
+                else if (frame != drawnFrame)
+                {
+                    this.renderer.drawChangedTiles(drawnFrame.desk, drawnFrame.ghostDesk, frame.desk, frame.ghostDesk);
+                }
+                drawnFrame = frame;
+
+                // only the visible tiles are drawn, the parts of them outside the visible part are clipped
+                this.visible.set(frame.visibleLeft, frame.visibleTop, frame.visibleRight, frame.visibleBottom);
+                canvas.save();
+                canvas.clipRect(this.visible);
+                this.renderer.setZoom(frame.zoom);
+                this.renderer.drawImage(canvas, frame.gridCornerX, frame.gridCornerY, this.visible, frame.desk, frame.ghostDesk);
+
+                // draw the running animation over the image
+                if (frame.desk.isAnimating)
+                {
+                    float animState = (System.currentTimeMillis() - frame.desk.animationBegin) / (float) GameDesk.animationLength;
+                    if (animState <= 1)
+                    {
+                        this.renderer.drawAnimation(canvas, frame.gridCornerX, frame.gridCornerY, frame.desk, animState,
+                                frame.animatedMinX, frame.animatedMinY, frame.animatedMaxX, frame.animatedMaxY);
+                        animationDrawn = true;
+                    }
+                }
+                canvas.restore();
+            }
+            finally
+            {
+                holder.unlockCanvasAndPost(canvas);
+            }
+        }
+    }
+}
@@ -1,81 +1,361 @@
 package com.github.mimo31.thedecomposegame;
 
 import android.content.Context;
+import android.util.Log;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by Viktor on 1/30/2016.
  * <p>
  * Handles the saving and loading of all static data in the application.
+ * <p>
+ * The data are saved separately for each player profile. The files of the first profile are directly in the files directory,
+ * so the saves from before the profiles were added belong to it, the files of the other profiles are in their own directories.
+ * Only the small profile index is read at startup together with the data of the active profile,
+ * the data of another profile are loaded when it is selected.
+ * <p>
+ * The maximum level and the best times are saved as a snapshot in the save file and a progress journal of the completions since.
+ * A completion only appends a small record to the journal and the journal is compacted into the save file once it gets long.
+ * The run of a level in progress is saved the same way - every move appends a record to the run file, so that the run can be
+ * resumed after the app is killed.
+ * <p>
+ * The data are serialized on the calling thread and written behind by a single background writer thread.
+ * Writes of the same file requested before the writer gets to them are coalesced into the last one.
+ * Every whole file is written to a temporary file through a buffer, synced to the disk and then renamed over the old file,
+ * so a crash during a write never leaves a partially written file behind. The journal records are synced after every append
+ * and a record torn by a crash is ignored.
  */
 public class IO
 {
+    private static final String TAG = "IO";
+
+    // the suffix of the temporary files the data are written to before being renamed
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // the single thread writing the files
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    // the contents of the files waiting to be written by the writer, guarded by itself
+    private static final Map<File, byte[]> pendingWrites = new LinkedHashMap<>();
+
+    // the last task of the writer changing the files of each profile directory, accessed only on the UI thread
+    private static final Map<File, Future<?>> lastProfileTasks = new HashMap<>();
+
+    // the number of completion records in the progress journal after which it is compacted into the save file
+    private static final int COMPACTION_RECORDS = 1024;
+
+    // the number of completion records in the progress journal, accessed only on the UI thread
+    private static int journalRecords;
+
+    // the names of the player profiles, accessed only on the UI thread
+    private static final List<String> profileNames = new ArrayList<>();
+
+    // the index of the player profile whose data are loaded, accessed only on the UI thread
+    private static int activeProfile;
+
+    // the size of a record of the run file - the x, the y, the index of the ClickField and the time of a move
+    private static final int RUN_RECORD_SIZE = 16;
+
+    // the x of the records of the run file which only save the time taken
+    private static final int RUN_TIME_RECORD = -1;
+
+    // the level of no run in progress
+    private static final int NO_RUN = -1;
+
+    // the run in progress of the active profile as last handed over to the writer, accessed only on the UI thread
+    // the UI thread is the only one changing the run file, so the run is loaded from here instead of the file which may not be written yet
+    private static boolean writtenRunKnown;
+    private static int writtenRunLevel = NO_RUN;
+    private static MoveJournal writtenRunJournal;
+    private static int writtenRunMillisTaken;
 
     /**
-     * Saves all static data (the maximum level and the best times).
+     * Saves the completion of a level by appending a record to the progress journal in the background,
+     * so a save takes the same few bytes no matter how many levels there are.
+     * Once the journal grows past COMPACTION_RECORDS records, all static data are written into the save file instead
+     * and the journal is deleted. Should be called on the UI thread after the maximum level and the best time are updated.
      *
      * @param context application context
+     * @param level   the index of the completed level
+     * @param time    the best time of the level
      */
-    public static void saveData(Context context)
+    public static void saveCompletion(Context context, int level, int time)
     {
-        File saveFile = getSaveFile(context);
+        File journalFile = getJournalFile(context);
+        if (journalRecords >= COMPACTION_RECORDS)
+        {
+            compact(context);
+            return;
+        }
+        journalRecords++;
+        byte[] record = new byte[8];
+        writeInt(record, 0, level);
+        writeInt(record, 4, time);
+        appendBehind(journalFile, 0, record);
+    }
+
+    /**
+     * Writes all static data (the maximum level and the best times) into the save file in the background and then deletes the progress journal.
+     * The previous save file is kept as the backup.
+     * The journal is kept if the save file cannot be written. The writer runs the tasks in order, so the journal records appended before
+     * are deleted only after the data including them are saved, and the records appended after are kept.
+     *
+     * @param context application context
+     */
+    static void compact(Context context)
+    {
+        final File saveFile = getSaveFile(context);
+        final File backupFile = getBackupFile(context);
+        final File journalFile = getJournalFile(context);
+        final byte[] contents;
         try
         {
-            FileOutputStream outputStream = new FileOutputStream(saveFile);
-            DataOutputStream dataOutput = new DataOutputStream(outputStream);
+            contents = SaveFile.write(Level.maxLevel);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            return;
+        }
+        journalRecords = 0;
+        executeInProfile(getProfileDirectory(context), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    writeAtomically(saveFile, contents, backupFile);
+                    journalFile.delete();
+                }
+                catch (IOException e)
+                {
+                    Log.e(TAG, "Compacting " + journalFile + " failed", e);
+                }
+            }
+        });
+    }
+
+    // writes an int in the big-endian order of DataOutputStream
+    private static void writeInt(byte[] bytes, int offset, int value)
+    {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Loads the profile index and the static data of the active profile. Should be called once at startup.
+     *
+     * @param context application context
+     */
+    public static void loadData(Context context)
+    {
+        loadProfiles(context);
+        loadProfileData(context);
+    }
+
+    /**
+     * @return the number of the player profiles, at least one
+     */
+    public static int getProfileCount()
+    {
+        return profileNames.size();
+    }
 
-            // write maxLevel
-            dataOutput.writeInt(Level.maxLevel);
+    /**
+     * @param profile the index of the profile
+     * @return the name of the profile
+     */
+    public static String getProfileName(int profile)
+    {
+        return profileNames.get(profile);
+    }
 
-            // write the best times
-            for (int i = 0; i < Level.maxLevel + 1; i++)
+    /**
+     * @return the index of the selected profile
+     */
+    public static int getActiveProfile()
+    {
+        return activeProfile;
+    }
+
+    /**
+     * Adds a new player profile with no progress and saves the profile index in the background. Does not select the profile.
+     *
+     * @param context application context
+     * @return the index of the new profile
+     */
+    public static int addProfile(Context context)
+    {
+        profileNames.add("Player " + (profileNames.size() + 1));
+        saveProfiles(context);
+        return profileNames.size() - 1;
+    }
+
+    /**
+     * Selects a player profile - loads its static data in place of the data of the current profile
+     * and saves the selection in the background. The data of the current profile are already saved, as every change is.
+     *
+     * @param context application context
+     * @param profile the index of the profile
+     */
+    public static void selectProfile(Context context, int profile)
+    {
+        if (profile == activeProfile)
+        {
+            return;
+        }
+
+        activeProfile = profile;
+        saveProfiles(context);
+
+        // the changes of the files of the profile handed over to the writer when it was last active are read back,
+        // so only they are waited for and only if the writer has not got to them yet
+        awaitProfileTasks(getProfileDirectory(context));
+        loadProfileData(context);
+    }
+
+    /**
+     * Loads the profile index. The index is the index of the active profile followed by the number of the profiles and their names.
+     * If there is no index, there is just the first profile.
+     *
+     * @param context application context
+     */
+    private static void loadProfiles(Context context)
+    {
+        profileNames.clear();
+        activeProfile = 0;
+        File profilesFile = getProfilesFile(context);
+        if (profilesFile.exists())
+        {
+            try
+            {
+                DataInputStream dataInput = new DataInputStream(new BufferedInputStream(new FileInputStream(profilesFile)));
+                try
+                {
+                    int active = dataInput.readInt();
+                    int count = dataInput.readInt();
+                    for (int i = 0; i < count; i++)
+                    {
+                        profileNames.add(dataInput.readUTF());
+                    }
+                    if (active >= 0 && active < count)
+                    {
+                        activeProfile = active;
+                    }
+                }
+                finally
+                {
+                    dataInput.close();
+                }
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+                profileNames.clear();
+            }
+        }
+        if (profileNames.isEmpty())
+        {
+            profileNames.add("Player 1");
+        }
+    }
+
+    /**
+     * Saves the profile index in the background.
+     *
+     * @param context application context
+     */
+    private static void saveProfiles(Context context)
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream dataOutput = new DataOutputStream(bytes);
+
+            dataOutput.writeInt(activeProfile);
+            dataOutput.writeInt(profileNames.size());
+            for (String name : profileNames)
             {
-                dataOutput.writeInt(Level.bestTimes[i]);
+                dataOutput.writeUTF(name);
             }
 
-            dataOutput.flush();
             dataOutput.close();
-            outputStream.close();
+            writeBehind(getProfilesFile(context), bytes.toByteArray());
         }
-        catch (Exception e)
+        catch (IOException e)
         {
             e.printStackTrace();
         }
     }
 
     /**
-     * Loads all static data (the maximum level and the best times). If no save is found, does nothing.
+     * Loads all static data (the maximum level and the best times) of the active profile from the save file and replays the progress journal on top of them.
+     * If the save file is missing or corrupted, the backup of the previous save file is loaded instead. If no save is found, the profile has no progress.
      *
      * @param context application context
      */
-    public static void loadData(Context context)
+    private static void loadProfileData(Context context)
     {
-        File saveFile = getSaveFile(context);
-        if (saveFile.exists())
+        SaveFile save = SaveFile.read(getSaveFile(context));
+        boolean recovered = false;
+        if (save == null)
         {
-            try
+            save = SaveFile.read(getBackupFile(context));
+            recovered = save != null && getSaveFile(context).exists();
+            if (recovered)
             {
-                FileInputStream inputStream = new FileInputStream(saveFile);
-                DataInputStream dataInput = new DataInputStream(inputStream);
+                Log.w(TAG, "The save file is corrupted, loaded the backup");
+            }
+        }
+        Level.maxLevel = save != null ? save.maxLevel : 0;
+        Level.setSave(save);
 
-                // read maxLevel
-                Level.maxLevel = dataInput.readInt();
+        // the run of the profile is read from its file when first needed
+        setWrittenRun(NO_RUN, null, 0);
+        writtenRunKnown = false;
 
-                // read the best times
-                for (int i = 0; i < Level.maxLevel + 1; i++)
-                {
-                    Level.bestTimes[i] = dataInput.readInt();
-                }
+        // replay the completions saved after the save file was written
+        File journalFile = getJournalFile(context);
+        journalRecords = 0;
+        boolean torn = false;
+        if (journalFile.exists())
+        {
+            try
+            {
+                FileInputStream inputStream = new FileInputStream(journalFile);
+                DataInputStream dataInput = new DataInputStream(new BufferedInputStream(inputStream));
 
-                // the maxLevel level is already completed and a next level is available, increment maxLevel
-                if (Level.bestTimes[Level.maxLevel] != 0 && Level.maxLevel != Level.levels.length - 1)
+                // a record torn by a crash during an append is ignored
+                long recordCount = journalFile.length() / 8;
+                torn = journalFile.length() % 8 != 0;
+                for (long i = 0; i < recordCount; i++)
                 {
-                    Level.maxLevel++;
+                    applyCompletion(dataInput.readInt(), dataInput.readInt());
+                    journalRecords++;
                 }
 
                 dataInput.close();
@@ -86,6 +366,681 @@ public class IO
                 e.printStackTrace();
             }
         }
+
+        // the maxLevel level is already completed and a next level is available, increment maxLevel
+        if (Level.isCompleted(Level.maxLevel) && Level.maxLevel != Level.levels.length - 1)
+        {
+            Level.maxLevel++;
+        }
+
+        // the records appended after a torn record would be misaligned and the corrupted save file should be replaced
+        if (torn || recovered)
+        {
+            compact(context);
+        }
+    }
+
+    /**
+     * Applies a completion record of the progress journal. Applying a record more than once has the same effect as applying it once.
+     * The save file is not decoded, the best time is merged when it is.
+     *
+     * @param level the index of the completed level
+     * @param time  the best time of the level
+     */
+    private static void applyCompletion(int level, int time)
+    {
+        if (level < 0 || level >= Level.levels.length)
+        {
+            return;
+        }
+        Level.mergeBestTime(level, time);
+        Level.maxLevel = Math.max(Level.maxLevel, Math.min(level + 1, Level.levels.length - 1));
+    }
+
+    /**
+     * Saves the replay of the best run of a level in the background.
+     *
+     * @param context application context
+     * @param level   the index of the level
+     * @param journal the moves of the run, can be changed after the call
+     */
+    public static void saveReplay(Context context, int level, MoveJournal journal)
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream dataOutput = new DataOutputStream(bytes);
+
+            journal.write(dataOutput);
+
+            dataOutput.close();
+            writeBehind(getReplayFile(context, level), bytes.toByteArray());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Loads the replay of the best run of a level.
+     *
+     * @param context application context
+     * @param level   the index of the level
+     * @return the moves of the best run or null if there is no saved replay for the level
+     */
+    public static MoveJournal loadReplay(Context context, int level)
+    {
+        File replayFile = getReplayFile(context, level);
+        if (replayFile.exists() || isPending(replayFile))
+        {
+            try
+            {
+                InputStream inputStream = openForReading(replayFile);
+                DataInputStream dataInput = new DataInputStream(new BufferedInputStream(inputStream));
+
+                MoveJournal journal = MoveJournal.read(dataInput);
+
+                dataInput.close();
+                inputStream.close();
+                return journal;
+            }
+            catch (Exception e)
+            {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The run of a level in progress loaded by loadRun.
+     */
+    public static class SavedRun
+    {
+        /**
+         * The index of the level.
+         */
+        public final int level;
+
+        /**
+         * The moves of the run.
+         */
+        public final MoveJournal journal;
+
+        /**
+         * The number of milliseconds taken in the level.
+         */
+        public final int millisTaken;
+
+        private SavedRun(int level, MoveJournal journal, int millisTaken)
+        {
+            this.level = level;
+            this.journal = journal;
+            this.millisTaken = millisTaken;
+        }
+    }
+
+    /**
+     * Starts saving a run of a level in progress in the background, replacing the saved run.
+     * The run file is the level followed by RUN_RECORD_SIZE byte records - the moves and the checkpoints of the time taken,
+     * so that every following move only appends a record.
+     *
+     * @param context     application context
+     * @param level       the index of the level
+     * @param journal     the moves made so far, can be changed after the call
+     * @param millisTaken the number of milliseconds taken in the level
+     */
+    public static void saveRunStart(Context context, int level, MoveJournal journal, int millisTaken)
+    {
+        final File runFile = getRunFile(context);
+        int moveCount = journal.size();
+        final byte[] contents = new byte[4 + RUN_RECORD_SIZE * (moveCount + 1)];
+        writeInt(contents, 0, level);
+        for (int i = 0; i < moveCount; i++)
+        {
+            writeRunRecord(contents, 4 + RUN_RECORD_SIZE * i, journal.getX(i), journal.getY(i), journal.getFieldIndex(i), journal.getTime(i));
+        }
+        writeRunRecord(contents, 4 + RUN_RECORD_SIZE * moveCount, RUN_TIME_RECORD, 0, 0, millisTaken);
+        setWrittenRun(level, journal.copy(), millisTaken);
+        executeInProfile(getProfileDirectory(context), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    writeAtomically(runFile, contents, null);
+                }
+                catch (IOException e)
+                {
+                    Log.e(TAG, "Writing " + runFile + " failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Saves a move of the run in progress in the background by appending it to the run file.
+     *
+     * @param context    application context
+     * @param x          the x coordinate of the tile the ClickField was applied on
+     * @param y          the y coordinate of the tile the ClickField was applied on
+     * @param fieldIndex the index of the applied ClickField in the allowed ClickFields of the level
+     * @param time       the number of milliseconds taken in the level when the move was made
+     */
+    public static void saveRunMove(Context context, int x, int y, int fieldIndex, int time)
+    {
+        if (writtenRunKnown)
+        {
+            if (writtenRunLevel == NO_RUN)
+            {
+                // the run has ended
+                return;
+            }
+            writtenRunJournal.add(x, y, fieldIndex, time);
+            writtenRunMillisTaken = Math.max(writtenRunMillisTaken, time);
+        }
+        byte[] record = new byte[RUN_RECORD_SIZE];
+        writeRunRecord(record, 0, x, y, fieldIndex, time);
+        appendBehind(getRunFile(context), 4, record);
+    }
+
+    /**
+     * Saves the time taken in the run in progress in the background by appending it to the run file.
+     *
+     * @param context     application context
+     * @param millisTaken the number of milliseconds taken in the level
+     */
+    public static void saveRunTime(Context context, int millisTaken)
+    {
+        if (writtenRunKnown)
+        {
+            if (writtenRunLevel == NO_RUN)
+            {
+                // the run has ended
+                return;
+            }
+            writtenRunMillisTaken = Math.max(writtenRunMillisTaken, millisTaken);
+        }
+        byte[] record = new byte[RUN_RECORD_SIZE];
+        writeRunRecord(record, 0, RUN_TIME_RECORD, 0, 0, millisTaken);
+        appendBehind(getRunFile(context), 4, record);
+    }
+
+    /**
+     * Deletes the saved run in progress in the background. Should be called when the run ends.
+     *
+     * @param context application context
+     */
+    public static void deleteRun(Context context)
+    {
+        final File runFile = getRunFile(context);
+        setWrittenRun(NO_RUN, null, 0);
+        executeInProfile(getProfileDirectory(context), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                runFile.delete();
+            }
+        });
+    }
+
+    /**
+     * Loads the saved run in progress. Once a run has been handed over to the writer, it is loaded from memory,
+     * so it is never read from the file before the writer gets to it. The moves are not validated, a record torn by a crash is ignored,
+     * so a resumed run should be rewritten by saveRunStart before more moves are appended to it.
+     *
+     * @param context application context
+     * @return the saved run or null if there is none
+     */
+    public static SavedRun loadRun(Context context)
+    {
+        if (!writtenRunKnown)
+        {
+            readRun(context);
+        }
+        if (writtenRunLevel == NO_RUN)
+        {
+            return null;
+        }
+        return new SavedRun(writtenRunLevel, writtenRunJournal.copy(), writtenRunMillisTaken);
+    }
+
+    /**
+     * @param context application context
+     * @return the index of the level of the saved run in progress or -1 if there is none
+     */
+    public static int getRunLevel(Context context)
+    {
+        if (!writtenRunKnown)
+        {
+            readRun(context);
+        }
+        return writtenRunLevel;
+    }
+
+    // remembers the run as handed over to the writer
+    private static void setWrittenRun(int level, MoveJournal journal, int millisTaken)
+    {
+        writtenRunKnown = true;
+        writtenRunLevel = level;
+        writtenRunJournal = journal;
+        writtenRunMillisTaken = millisTaken;
+    }
+
+    /**
+     * Reads the run file of the active profile as the last written run. Called only when no run of the profile has been handed over
+     * to the writer since it was loaded, so there are no writes of the file waiting.
+     *
+     * @param context application context
+     */
+    private static void readRun(Context context)
+    {
+        setWrittenRun(NO_RUN, null, 0);
+        File runFile = getRunFile(context);
+        if (!runFile.exists())
+        {
+            return;
+        }
+        try
+        {
+            FileInputStream inputStream = new FileInputStream(runFile);
+            DataInputStream dataInput = new DataInputStream(new BufferedInputStream(inputStream));
+            try
+            {
+                long recordCount = (runFile.length() - 4) / RUN_RECORD_SIZE;
+                int level = dataInput.readInt();
+                if (level < 0 || level > Level.maxLevel)
+                {
+                    return;
+                }
+                MoveJournal journal = new MoveJournal();
+                int millisTaken = 0;
+                for (long i = 0; i < recordCount; i++)
+                {
+                    int x = dataInput.readInt();
+                    int y = dataInput.readInt();
+                    int fieldIndex = dataInput.readInt();
+                    int time = dataInput.readInt();
+                    if (x != RUN_TIME_RECORD)
+                    {
+                        journal.add(x, y, fieldIndex, time);
+                    }
+                    millisTaken = Math.max(millisTaken, time);
+                }
+                setWrittenRun(level, journal, millisTaken);
+            }
+            finally
+            {
+                dataInput.close();
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    // blocks until the writer finishes all the tasks handed over to it so far, the tasks of all the profiles, so it is never called on the UI thread
+    static void awaitWriter()
+    {
+        try
+        {
+            writer.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                }
+            }).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Hands a task changing the files of a profile over to the writer.
+     *
+     * @param profileDirectory the directory of the profile whose files the task changes
+     * @param task             the task
+     */
+    private static void executeInProfile(File profileDirectory, Runnable task)
+    {
+        lastProfileTasks.put(profileDirectory, writer.submit(task));
+    }
+
+    /**
+     * Blocks until the writer finishes the tasks changing the files of a profile handed over to it so far.
+     * Does not wait for the tasks of the other profiles queued after them.
+     *
+     * @param profileDirectory the directory of the profile
+     */
+    private static void awaitProfileTasks(File profileDirectory)
+    {
+        // the writer runs the tasks in order, so the last task of the profile is done only after all the previous ones
+        Future<?> lastTask = lastProfileTasks.remove(profileDirectory);
+        if (lastTask == null || lastTask.isDone())
+        {
+            return;
+        }
+        try
+        {
+            lastTask.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    // writes a record of the run file
+    private static void writeRunRecord(byte[] bytes, int offset, int x, int y, int fieldIndex, int time)
+    {
+        writeInt(bytes, offset, x);
+        writeInt(bytes, offset + 4, y);
+        writeInt(bytes, offset + 8, fieldIndex);
+        writeInt(bytes, offset + 12, time);
+    }
+
+    /**
+     * Replaces the replay of the best run of a level by a replay already written to another file in the background.
+     * A write of the replay which has not been done yet is dropped, as it is older.
+     *
+     * @param context     application context
+     * @param level       the index of the level
+     * @param replayFile  the file with the new replay, moved by the call
+     */
+    static void installReplay(Context context, int level, final File replayFile)
+    {
+        final File file = getReplayFile(context, level);
+        synchronized (pendingWrites)
+        {
+            pendingWrites.remove(file);
+        }
+        executeInProfile(getProfileDirectory(context), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                file.getParentFile().mkdirs();
+                if (!replayFile.renameTo(file))
+                {
+                    Log.e(TAG, "Moving " + replayFile + " to " + file + " failed");
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes the replay of the best run of a level in the background, used when the best time is replaced by one without a replay.
+     * A write of the replay which has not been done yet is dropped.
+     *
+     * @param context application context
+     * @param level   the index of the level
+     */
+    static void deleteReplay(Context context, int level)
+    {
+        final File file = getReplayFile(context, level);
+        synchronized (pendingWrites)
+        {
+            pendingWrites.remove(file);
+        }
+        executeInProfile(getProfileDirectory(context), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                file.delete();
+            }
+        });
+    }
+
+    /**
+     * Hands a record to append to a file of records over to the writer. The appends and the other tasks of the writer are done in order.
+     * The bytes of a record torn by a failed append are cut off before the record is appended, so the records stay aligned.
+     *
+     * @param file       the file to append to
+     * @param headerSize the number of bytes before the first record of the file
+     * @param record     the record to append, all the records of the file are of its length
+     */
+    private static void appendBehind(final File file, final int headerSize, final byte[] record)
+    {
+        // the files appended to are directly in the profile directory
+        executeInProfile(file.getParentFile(), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    file.getParentFile().mkdirs();
+                    FileOutputStream outputStream = new FileOutputStream(file, true);
+                    try
+                    {
+                        FileChannel channel = outputStream.getChannel();
+                        long size = channel.size();
+                        long tornBytes = size < headerSize ? 0 : (size - headerSize) % record.length;
+                        if (tornBytes != 0)
+                        {
+                            channel.truncate(size - tornBytes);
+                        }
+                        outputStream.write(record);
+                        outputStream.getFD().sync();
+                    }
+                    finally
+                    {
+                        outputStream.close();
+                    }
+                }
+                catch (IOException e)
+                {
+                    Log.e(TAG, "Appending to " + file + " failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Hands the contents of a file over to the writer. Replaces the contents of the file waiting to be written if there are any.
+     *
+     * @param file     the file to write
+     * @param contents the whole new contents of the file
+     */
+    private static void writeBehind(File file, byte[] contents)
+    {
+        boolean drainScheduled;
+        synchronized (pendingWrites)
+        {
+            drainScheduled = !pendingWrites.isEmpty();
+            pendingWrites.put(file, contents);
+        }
+        if (!drainScheduled)
+        {
+            writer.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    drainPendingWrites();
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes all the pending files. Runs on the writer thread.
+     * The files stay pending until they are written, so that they are read with the new contents in the meantime.
+     */
+    private static void drainPendingWrites()
+    {
+        while (true)
+        {
+            File file;
+            byte[] contents;
+            synchronized (pendingWrites)
+            {
+                if (pendingWrites.isEmpty())
+                {
+                    return;
+                }
+                Map.Entry<File, byte[]> first = pendingWrites.entrySet().iterator().next();
+                file = first.getKey();
+                contents = first.getValue();
+            }
+            try
+            {
+                writeAtomically(file, contents, null);
+            }
+            catch (IOException e)
+            {
+                Log.e(TAG, "Writing " + file + " failed", e);
+            }
+            synchronized (pendingWrites)
+            {
+                // a newer version requested in the meantime stays pending
+                if (pendingWrites.get(file) == contents)
+                {
+                    pendingWrites.remove(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a file through a temporary file, which is synced to the disk and renamed over the file.
+     *
+     * @param file       the file to write
+     * @param contents   the whole new contents of the file
+     * @param backupFile the file the old file is renamed to before it is replaced or null if no backup should be kept
+     * @throws IOException if writing or renaming fails
+     */
+    private static void writeAtomically(File file, byte[] contents, File backupFile) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+        try
+        {
+            BufferedOutputStream bufferedOutput = new BufferedOutputStream(outputStream);
+            bufferedOutput.write(contents);
+            bufferedOutput.flush();
+            outputStream.getFD().sync();
+        }
+        finally
+        {
+            outputStream.close();
+        }
+        if (backupFile != null && file.exists() && !file.renameTo(backupFile))
+        {
+            throw new IOException("Renaming " + file + " failed");
+        }
+        if (!tempFile.renameTo(file))
+        {
+            throw new IOException("Renaming " + tempFile + " failed");
+        }
+    }
+
+    /**
+     * @param file the file to check
+     * @return whether the file is waiting to be written by the writer
+     */
+    private static boolean isPending(File file)
+    {
+        synchronized (pendingWrites)
+        {
+            return pendingWrites.containsKey(file);
+        }
+    }
+
+    /**
+     * Opens a file for reading. Reads the contents waiting to be written if the file is pending, so that the last saved data are read.
+     *
+     * @param file the file to read
+     * @return the stream of the contents of the file
+     * @throws IOException if the file cannot be opened
+     */
+    private static InputStream openForReading(File file) throws IOException
+    {
+        synchronized (pendingWrites)
+        {
+            byte[] contents = pendingWrites.get(file);
+            if (contents != null)
+            {
+                return new ByteArrayInputStream(contents);
+            }
+        }
+        return new FileInputStream(file);
+    }
+
+    /**
+     * @param context application context
+     * @param level   the index of the level
+     * @return the File object pointing to the replay file of the level (even if the file actually doesn't exist)
+     */
+    static File getReplayFile(Context context, int level)
+    {
+        return new File(new File(getProfileDirectory(context), "replays"), level + ".dat");
+    }
+
+    /**
+     * @param context application context
+     * @return the directory of the files of the active profile
+     */
+    private static File getProfileDirectory(Context context)
+    {
+        if (activeProfile == 0)
+        {
+            return context.getFilesDir();
+        }
+        return new File(new File(context.getFilesDir(), "profiles"), String.valueOf(activeProfile));
+    }
+
+    /**
+     * @param context application context
+     * @return the File object pointing to the profile index (even if the file actually doesn't exist)
+     */
+    private static File getProfilesFile(Context context)
+    {
+        return new File(context.getFilesDir(), "Profiles.dat");
+    }
+
+    /**
+     * @param context application context
+     * @return the File object pointing to the progress journal appended to after the save file (even if the file actually doesn't exist)
+     */
+    private static File getJournalFile(Context context)
+    {
+        return new File(getProfileDirectory(context), "Progress.journal");
+    }
+
+    /**
+     * @param context application context
+     * @return the File object pointing to the file of the run in progress (even if the file actually doesn't exist)
+     */
+    private static File getRunFile(Context context)
+    {
+        return new File(getProfileDirectory(context), "Run.dat");
+    }
+
+    /**
+     * @param context application context
+     * @return the File object pointing to the backup of the previous save file (even if the file actually doesn't exist)
+     */
+    private static File getBackupFile(Context context)
+    {
+        return new File(getProfileDirectory(context), "Save.bak");
     }
 
     /**
@@ -94,6 +1049,6 @@ public class IO
      */
     private static File getSaveFile(Context context)
     {
-        return new File(context.getFilesDir(), "Save.dat");
+        return new File(getProfileDirectory(context), "Save.dat");
     }
 }
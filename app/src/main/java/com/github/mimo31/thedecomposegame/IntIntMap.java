@@ -0,0 +1,134 @@
+package com.github.mimo31.thedecomposegame;
+
+import java.util.Arrays;
+
+/**
+ * A map from non-negative ints to ints stored in two primitive arrays with open addressing and linear probing,
+ * so it takes memory proportional to the number of entries and does not box the keys or the values.
+ * Entries can only be added or changed, never removed.
+ */
+public class IntIntMap
+{
+    // the key of an empty slot
+    private static final int EMPTY = -1;
+
+    // the number of slots of an empty map, a power of two
+    private static final int INITIAL_CAPACITY = 16;
+
+    // the keys and the values of the slots, the number of slots is a power of two
+    private int[] keys;
+    private int[] values;
+
+    // the number of entries
+    private int size;
+
+    public IntIntMap()
+    {
+        this.keys = new int[INITIAL_CAPACITY];
+        this.values = new int[INITIAL_CAPACITY];
+        Arrays.fill(this.keys, EMPTY);
+    }
+
+    /**
+     * @param key the key, non-negative
+     * @return the value of the key or 0 if the map does not contain the key
+     */
+    public int get(int key)
+    {
+        int mask = this.keys.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask)
+        {
+            if (this.keys[slot] == key)
+            {
+                return this.values[slot];
+            }
+            if (this.keys[slot] == EMPTY)
+            {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Sets the value of a key.
+     *
+     * @param key   the key, non-negative
+     * @param value the value
+     */
+    public void put(int key, int value)
+    {
+        // keep at most half of the slots full, so the probe sequences stay short
+        if (2 * (this.size + 1) > this.keys.length)
+        {
+            this.resize(2 * this.keys.length);
+        }
+        int mask = this.keys.length - 1;
+        int slot = hash(key) & mask;
+        while (this.keys[slot] != key && this.keys[slot] != EMPTY)
+        {
+            slot = (slot + 1) & mask;
+        }
+        if (this.keys[slot] == EMPTY)
+        {
+            this.keys[slot] = key;
+            this.size++;
+        }
+        this.values[slot] = value;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * @return the keys of all the entries in the ascending order
+     */
+    public int[] sortedKeys()
+    {
+        int[] sorted = new int[this.size];
+        int i = 0;
+        for (int key : this.keys)
+        {
+            if (key != EMPTY)
+            {
+                sorted[i++] = key;
+            }
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private void resize(int capacity)
+    {
+        int[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        this.keys = new int[capacity];
+        this.values = new int[capacity];
+        Arrays.fill(this.keys, EMPTY);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != EMPTY)
+            {
+                int slot = hash(oldKeys[i]) & mask;
+                while (this.keys[slot] != EMPTY)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                this.keys[slot] = oldKeys[i];
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    // spreads consecutive keys over the slots
+    private static int hash(int key)
+    {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
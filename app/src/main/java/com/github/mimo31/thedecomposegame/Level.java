@@ -14,10 +14,21 @@ public class Level
     public static Level[] levels;
 
     /**
-     * Array of the same length as the levels array.
-     * Contains the shortest times for
+     * The shortest times of the completed levels by the index of the level.
+     * Sparse, so it takes memory proportional to the number of completed levels no matter how many levels there are.
      */
-    public static int[] bestTimes;
+    private static IntIntMap bestTimes;
+
+    /**
+     * The save file whose best times have not been decoded into the bestTimes yet, they are decoded when first accessed.
+     * Null if there is no such save file.
+     */
+    private static SaveFile undecodedSave;
+
+    /**
+     * The shortest times of the completions saved after the undecodedSave, merged into the bestTimes when the save is decoded.
+     */
+    private static IntIntMap undecodedCompletions = new IntIntMap();
 
     /**
      * The max level that can be played. That's the last completed level + 1 (until we run out of levels).
@@ -713,6 +724,93 @@ public class Level
                 9, 9, 2
         }, new ClickField[] { threeOnesAndTwo, twoAndOneApart, hook4Field } );
 
-        bestTimes = new int[levels.length];
+        bestTimes = new IntIntMap();
+    }
+
+    /**
+     * @param level the index of the level
+     * @return the shortest time the level was completed in, 0 if it has not been completed
+     */
+    public static int getBestTime(int level)
+    {
+        decodeSave();
+        return bestTimes.get(level);
+    }
+
+    /**
+     * @param level the index of the level
+     * @param time  the new shortest time the level was completed in
+     */
+    public static void setBestTime(int level, int time)
+    {
+        decodeSave();
+        bestTimes.put(level, time);
+    }
+
+    /**
+     * @return the shortest times of the completed levels by the index of the level, must not be changed
+     */
+    static IntIntMap getBestTimes()
+    {
+        decodeSave();
+        return bestTimes;
+    }
+
+    /**
+     * Lowers the best time of a level to the time of a completion if it is shorter. Does not decode the save file,
+     * so the completions saved after it can be applied when it is loaded without decoding it.
+     *
+     * @param level the index of the level
+     * @param time  the time the level was completed in
+     */
+    public static void mergeBestTime(int level, int time)
+    {
+        IntIntMap times = undecodedSave != null ? undecodedCompletions : bestTimes;
+        int bestTime = times.get(level);
+        if (bestTime == 0 || time < bestTime)
+        {
+            times.put(level, time);
+        }
+    }
+
+    /**
+     * Checks whether a level has been completed. Decodes only the entry of the level if the save file has not been decoded yet.
+     *
+     * @param level the index of the level
+     * @return whether the level has a best time
+     */
+    public static boolean isCompleted(int level)
+    {
+        if (undecodedSave != null)
+        {
+            return undecodedCompletions.get(level) != 0 || undecodedSave.getBestTime(level) != 0;
+        }
+        return bestTimes.get(level) != 0;
+    }
+
+    /**
+     * Replaces all the best times by the ones of a loaded save file. The times are decoded when first accessed.
+     *
+     * @param save the loaded save file or null if there are no best times
+     */
+    public static void setSave(SaveFile save)
+    {
+        undecodedSave = save;
+        undecodedCompletions = new IntIntMap();
+        bestTimes = new IntIntMap();
+    }
+
+    private static void decodeSave()
+    {
+        if (undecodedSave != null)
+        {
+            undecodedSave.decodeBestTimes(bestTimes);
+            undecodedSave = null;
+            for (int level : undecodedCompletions.sortedKeys())
+            {
+                mergeBestTime(level, undecodedCompletions.get(level));
+            }
+            undecodedCompletions = new IntIntMap();
+        }
     }
 }
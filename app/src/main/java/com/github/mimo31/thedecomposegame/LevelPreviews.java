@@ -0,0 +1,173 @@
+package com.github.mimo31.thedecomposegame;
+
+import android.graphics.Bitmap;
+import android.view.View;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Renders the previews of the initial boards of the levels on a background thread and keeps the recently used ones.
+ * <p>
+ * A preview has one pixel per tile, so it is cheap to render and is drawn scaled by the level list.
+ * The cache is an LRU of previews taking at most MAX_PREVIEW_BYTES linked through arrays indexed by the level,
+ * so looking a preview up while drawing neither boxes the index nor allocates.
+ * All the methods should be called from the UI thread, the rendered previews are handed back to it through the view.
+ */
+public class LevelPreviews
+{
+    // the maximal number of bytes of the pixels of the cached previews, a preview of a big board takes 4 bytes per tile
+    private static final int MAX_PREVIEW_BYTES = 4 * 1024 * 1024;
+
+    // the index meaning no level in the LRU links
+    private static final int NONE = -1;
+
+    // the view which draws the previews, invalidated when a preview is ready
+    private final View view;
+
+    // the cached previews, null for the levels which are not cached
+    private final Bitmap[] previews;
+
+    // indicates whether the preview of the level is being rendered
+    private final boolean[] requested;
+
+    // the LRU links - the next more and less recently used cached level
+    private final int[] newer;
+    private final int[] older;
+
+    // the most and the least recently used cached level
+    private int newest = NONE;
+    private int oldest = NONE;
+
+    // the number of bytes of the pixels of the cached previews
+    private int bytes;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * @param view       the view which draws the previews, invalidated when a preview is ready
+     * @param levelCount the number of levels
+     */
+    public LevelPreviews(View view, int levelCount)
+    {
+        this.view = view;
+        this.previews = new Bitmap[levelCount];
+        this.requested = new boolean[levelCount];
+        this.newer = new int[levelCount];
+        this.older = new int[levelCount];
+    }
+
+    /**
+     * Returns the preview of a level and marks it as the most recently used.
+     *
+     * @param level the index of the level
+     * @return the preview or null if it has not been rendered yet
+     */
+    public Bitmap get(int level)
+    {
+        Bitmap preview = this.previews[level];
+        if (preview != null && this.newest != level)
+        {
+            this.unlink(level);
+            this.linkAsNewest(level);
+        }
+        return preview;
+    }
+
+    /**
+     * Starts rendering the preview of a level on the background thread unless it is cached or already being rendered.
+     *
+     * @param level the index of the level
+     */
+    public void request(final int level)
+    {
+        if (this.previews[level] != null || this.requested[level])
+        {
+            return;
+        }
+        this.requested[level] = true;
+        final Level levelData = Level.levels[level];
+        this.executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                int[] pixels = new int[levelData.width * levelData.height];
+                for (int i = 0; i < pixels.length; i++)
+                {
+                    pixels[i] = levelData.tiles[i] ? PlayActivity.badColor : PlayActivity.goodColor;
+                }
+                final Bitmap preview = Bitmap.createBitmap(pixels, levelData.width, levelData.height, Bitmap.Config.ARGB_8888);
+                view.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        put(level, preview);
+                        view.invalidate();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stops the background thread. The previews requested later are never rendered.
+     */
+    public void shutdown()
+    {
+        this.executor.shutdownNow();
+    }
+
+    // adds a rendered preview to the cache, evicting the least recently used ones until it fits
+    private void put(int level, Bitmap preview)
+    {
+        this.requested[level] = false;
+        int previewBytes = preview.getByteCount();
+        while (this.oldest != NONE && this.bytes + previewBytes > MAX_PREVIEW_BYTES)
+        {
+            int evicted = this.oldest;
+            this.unlink(evicted);
+            this.bytes -= this.previews[evicted].getByteCount();
+            this.previews[evicted] = null;
+        }
+        this.previews[level] = preview;
+        this.linkAsNewest(level);
+        this.bytes += previewBytes;
+    }
+
+    private void linkAsNewest(int level)
+    {
+        this.newer[level] = NONE;
+        this.older[level] = this.newest;
+        if (this.newest != NONE)
+        {
+            this.newer[this.newest] = level;
+        }
+        this.newest = level;
+        if (this.oldest == NONE)
+        {
+            this.oldest = level;
+        }
+    }
+
+    private void unlink(int level)
+    {
+        if (this.newer[level] != NONE)
+        {
+            this.older[this.newer[level]] = this.older[level];
+        }
+        else
+        {
+            this.newest = this.older[level];
+        }
+        if (this.older[level] != NONE)
+        {
+            this.newer[this.older[level]] = this.newer[level];
+        }
+        else
+        {
+            this.oldest = this.newer[level];
+        }
+    }
+}
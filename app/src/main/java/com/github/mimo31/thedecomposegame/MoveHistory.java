@@ -0,0 +1,175 @@
+package com.github.mimo31.thedecomposegame;
+
+/**
+ * Keeps the history of a run of a level, so that the GameDesk after any move of the run can be reconstructed quickly.
+ * <p>
+ * Stores the MoveJournal of the run together with checkpoints - forks of the GameDesk taken every checkpointInterval moves.
+ * Reconstructing the desk after a move forks the nearest preceding checkpoint and replays less than checkpointInterval moves on it.
+ * The number of checkpoints is limited; when the limit is reached, every other checkpoint is dropped and the interval is doubled,
+ * so the memory stays bounded even for very long runs.
+ */
+public class MoveHistory
+{
+    // the maximum number of checkpoints kept, should be even
+    private static final int MAX_CHECKPOINTS = 64;
+
+    // the moves of the run
+    private final MoveJournal journal;
+
+    // the allowed ClickFields of the level
+    private final ClickField[] fields;
+
+    // checkpoints[i] is the desk after i * checkpointInterval moves
+    private final GameDesk[] checkpoints = new GameDesk[MAX_CHECKPOINTS];
+
+    // the number of valid checkpoints
+    private int checkpointCount;
+
+    // the number of moves between two checkpoints
+    private int checkpointInterval = 16;
+
+    /**
+     * Creates the history of a run. If the journal already contains moves, replays them to create the checkpoints.
+     *
+     * @param initialDesk the desk at the beginning of the run, will not be changed
+     * @param fields      the allowed ClickFields of the level
+     * @param journal     the moves of the run
+     */
+    public MoveHistory(GameDesk initialDesk, ClickField[] fields, MoveJournal journal)
+    {
+        this.journal = journal;
+        this.fields = fields;
+        this.replayOn(initialDesk.fork());
+    }
+
+    private MoveHistory(ClickField[] fields, MoveJournal journal)
+    {
+        this.journal = journal;
+        this.fields = fields;
+    }
+
+    /**
+     * Creates the history of a run loaded from a file by replaying its moves on a desk, so the desk after the run
+     * is available without replaying the moves again. The moves from the first one which cannot be applied are dropped from the journal.
+     *
+     * @param desk    the desk at the beginning of the run, changed to the desk after the run
+     * @param fields  the allowed ClickFields of the level
+     * @param journal the moves of the run
+     * @return the history of the run
+     */
+    public static MoveHistory replay(GameDesk desk, ClickField[] fields, MoveJournal journal)
+    {
+        MoveHistory history = new MoveHistory(fields, journal);
+        history.replayOn(desk);
+        return history;
+    }
+
+    // replays the journal on the desk at the beginning of the run to create the checkpoints
+    private void replayOn(GameDesk desk)
+    {
+        this.checkpoints[0] = desk.fork();
+        this.checkpointCount = 1;
+        for (int i = 0, n = this.journal.size(); i < n; i++)
+        {
+            int fieldIndex = this.journal.getFieldIndex(i);
+            if (fieldIndex < 0 || fieldIndex >= this.fields.length || !this.journal.apply(i, desk, this.fields))
+            {
+                this.journal.truncate(i);
+                return;
+            }
+            this.checkpointIfDue(i + 1, desk);
+        }
+    }
+
+    /**
+     * Records a move at the end of the run. Should be called after the move has been applied on the desk.
+     *
+     * @param desk       the desk after the move
+     * @param x          the x coordinate of the tile the ClickField was applied on
+     * @param y          the y coordinate of the tile the ClickField was applied on
+     * @param fieldIndex the index of the applied ClickField in the allowed ClickFields of the level
+     * @param time       the number of milliseconds taken in the level when the move was made
+     */
+    public void record(GameDesk desk, int x, int y, int fieldIndex, int time)
+    {
+        this.journal.add(x, y, fieldIndex, time);
+        this.checkpointIfDue(this.journal.size(), desk);
+    }
+
+    // adds a checkpoint of the desk if the move count is at the checkpoint interval
+    private void checkpointIfDue(int moveCount, GameDesk desk)
+    {
+        if (moveCount % this.checkpointInterval != 0)
+        {
+            return;
+        }
+        if (this.checkpointCount == MAX_CHECKPOINTS)
+        {
+            // keep every other checkpoint
+            for (int i = 0; i < MAX_CHECKPOINTS / 2; i++)
+            {
+                this.checkpoints[i] = this.checkpoints[2 * i];
+            }
+            for (int i = MAX_CHECKPOINTS / 2; i < MAX_CHECKPOINTS; i++)
+            {
+                this.checkpoints[i] = null;
+            }
+            this.checkpointCount = MAX_CHECKPOINTS / 2;
+            this.checkpointInterval *= 2;
+            if (moveCount % this.checkpointInterval != 0)
+            {
+                return;
+            }
+        }
+        this.checkpoints[this.checkpointCount++] = desk.fork();
+    }
+
+    /**
+     * Reconstructs the desk after a move of the run.
+     *
+     * @param moveCount the number of moves from the beginning of the run, from 0 to size()
+     * @return a new desk after the specified number of moves, which can be freely changed
+     */
+    public GameDesk getDeskAt(int moveCount)
+    {
+        int checkpoint = Math.min(moveCount / this.checkpointInterval, this.checkpointCount - 1);
+        GameDesk desk = this.checkpoints[checkpoint].fork();
+        for (int i = checkpoint * this.checkpointInterval; i < moveCount; i++)
+        {
+            this.journal.apply(i, desk, this.fields);
+        }
+        return desk;
+    }
+
+    /**
+     * Removes the moves after the specified move from the run, so that the run continues from there.
+     *
+     * @param moveCount the number of moves to keep
+     */
+    public void truncate(int moveCount)
+    {
+        this.journal.truncate(moveCount);
+        int newCheckpointCount = moveCount / this.checkpointInterval + 1;
+        for (int i = newCheckpointCount; i < this.checkpointCount; i++)
+        {
+            this.checkpoints[i] = null;
+        }
+        this.checkpointCount = Math.min(this.checkpointCount, newCheckpointCount);
+    }
+
+    /**
+     * @return the number of moves of the run
+     */
+    public int size()
+    {
+        return this.journal.size();
+    }
+
+    /**
+     * @return the journal with the moves of the run
+     */
+    public MoveJournal getJournal()
+    {
+        return this.journal;
+    }
+}
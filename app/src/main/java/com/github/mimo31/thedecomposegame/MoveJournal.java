@@ -0,0 +1,257 @@
+package com.github.mimo31.thedecomposegame;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Records the moves made during a run of a level, so that the run can be replayed.
+ * Every move is stored as the location of the applied ClickField, the index of the ClickField in the allowed ClickFields of the level
+ * and the time (the number of milliseconds taken in the level) when the move was made.
+ */
+public class MoveJournal implements Parcelable
+{
+    // the number of ints stored per move
+    private static final int MOVE_SIZE = 4;
+
+    // the recorded moves, move i is stored at [MOVE_SIZE * i] to [MOVE_SIZE * i + MOVE_SIZE - 1]
+    private int[] data;
+
+    // the number of recorded moves
+    private int size;
+
+    public MoveJournal()
+    {
+        this.data = new int[16 * MOVE_SIZE];
+    }
+
+    /**
+     * Records a move at the end of the journal.
+     *
+     * @param x          the x coordinate of the tile the ClickField was applied on
+     * @param y          the y coordinate of the tile the ClickField was applied on
+     * @param fieldIndex the index of the applied ClickField in the allowed ClickFields of the level
+     * @param time       the number of milliseconds taken in the level when the move was made
+     */
+    public void add(int x, int y, int fieldIndex, int time)
+    {
+        if ((this.size + 1) * MOVE_SIZE > this.data.length)
+        {
+            int[] newData = new int[this.data.length * 2];
+            System.arraycopy(this.data, 0, newData, 0, this.size * MOVE_SIZE);
+            this.data = newData;
+        }
+        int offset = this.size * MOVE_SIZE;
+        this.data[offset] = x;
+        this.data[offset + 1] = y;
+        this.data[offset + 2] = fieldIndex;
+        this.data[offset + 3] = time;
+        this.size++;
+    }
+
+    /**
+     * @return a new journal with the same moves, which can be changed independently
+     */
+    public MoveJournal copy()
+    {
+        MoveJournal copy = new MoveJournal();
+        copy.data = new int[Math.max(this.size, 1) * MOVE_SIZE];
+        System.arraycopy(this.data, 0, copy.data, 0, this.size * MOVE_SIZE);
+        copy.size = this.size;
+        return copy;
+    }
+
+    /**
+     * Removes all the recorded moves.
+     */
+    public void clear()
+    {
+        this.size = 0;
+    }
+
+    /**
+     * Removes the moves after the specified move.
+     *
+     * @param size the number of moves to keep
+     */
+    public void truncate(int size)
+    {
+        this.size = Math.min(this.size, size);
+    }
+
+    /**
+     * @return the number of recorded moves
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * @param move the index of the move
+     * @return the x coordinate of the tile the ClickField was applied on
+     */
+    public int getX(int move)
+    {
+        return this.data[move * MOVE_SIZE];
+    }
+
+    /**
+     * @param move the index of the move
+     * @return the y coordinate of the tile the ClickField was applied on
+     */
+    public int getY(int move)
+    {
+        return this.data[move * MOVE_SIZE + 1];
+    }
+
+    /**
+     * @param move the index of the move
+     * @return the index of the applied ClickField in the allowed ClickFields of the level
+     */
+    public int getFieldIndex(int move)
+    {
+        return this.data[move * MOVE_SIZE + 2];
+    }
+
+    /**
+     * @param move the index of the move
+     * @return the number of milliseconds taken in the level when the move was made
+     */
+    public int getTime(int move)
+    {
+        return this.data[move * MOVE_SIZE + 3];
+    }
+
+    /**
+     * Applies a recorded move on a GameDesk without animating it.
+     *
+     * @param move   the index of the move
+     * @param desk   the GameDesk to apply the move on
+     * @param fields the allowed ClickFields of the level
+     * @return whether the move was valid on the GameDesk
+     */
+    public boolean apply(int move, GameDesk desk, ClickField[] fields)
+    {
+        return desk.applyField(fields[this.getFieldIndex(move)], this.getX(move), this.getY(move));
+    }
+
+    /**
+     * Writes the journal to a stream.
+     *
+     * @param output the stream to write to
+     * @throws IOException if writing fails
+     */
+    public void write(DataOutputStream output) throws IOException
+    {
+        output.writeInt(this.size);
+        for (int i = 0, n = this.size * MOVE_SIZE; i < n; i++)
+        {
+            output.writeInt(this.data[i]);
+        }
+    }
+
+    /**
+     * Reads a journal written by the write method.
+     *
+     * @param input the stream to read from
+     * @return the read journal
+     * @throws IOException if reading fails
+     */
+    public static MoveJournal read(DataInputStream input) throws IOException
+    {
+        MoveJournal journal = new MoveJournal();
+        int size = input.readInt();
+        journal.data = new int[Math.max(size, 1) * MOVE_SIZE];
+        for (int i = 0, n = size * MOVE_SIZE; i < n; i++)
+        {
+            journal.data[i] = input.readInt();
+        }
+        journal.size = size;
+        return journal;
+    }
+
+    // parcelling implementation here and under
+    // the moves are parcelled as variable-length encoded bytes with the times stored as differences from the previous move
+
+    protected MoveJournal(Parcel in)
+    {
+        this.size = in.readInt();
+        this.data = new int[Math.max(this.size, 1) * MOVE_SIZE];
+        byte[] packed = in.createByteArray();
+        int position = 0;
+        int time = 0;
+        for (int i = 0, n = this.size * MOVE_SIZE; i < n; i++)
+        {
+            // read one variable-length value, 7 bits per byte, the highest bit set on all but the last byte
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do
+            {
+                b = packed[position++];
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            if (i % MOVE_SIZE == 3)
+            {
+                time += value;
+                value = time;
+            }
+            this.data[i] = value;
+        }
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags)
+    {
+        // each value takes at most 5 bytes
+        byte[] packed = new byte[this.size * MOVE_SIZE * 5];
+        int position = 0;
+        int previousTime = 0;
+        for (int i = 0, n = this.size * MOVE_SIZE; i < n; i++)
+        {
+            int value = this.data[i];
+            if (i % MOVE_SIZE == 3)
+            {
+                value -= previousTime;
+                previousTime = this.data[i];
+            }
+            while ((value & ~0x7f) != 0)
+            {
+                packed[position++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            packed[position++] = (byte) value;
+        }
+        byte[] usedPacked = new byte[position];
+        System.arraycopy(packed, 0, usedPacked, 0, position);
+        dest.writeInt(this.size);
+        dest.writeByteArray(usedPacked);
+    }
+
+    @Override
+    public int describeContents()
+    {
+        return 0;
+    }
+
+    public static final Creator<MoveJournal> CREATOR = new Creator<MoveJournal>()
+    {
+        @Override
+        public MoveJournal createFromParcel(Parcel in)
+        {
+            return new MoveJournal(in);
+        }
+
+        @Override
+        public MoveJournal[] newArray(int size)
+        {
+            return new MoveJournal[size];
+        }
+    };
+}
@@ -3,26 +3,28 @@ package com.github.mimo31.thedecomposegame;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Path;
 import android.graphics.Rect;
 import android.graphics.Typeface;
-import android.os.Handler;
 import android.support.v4.view.GestureDetectorCompat;
+import android.support.v4.view.ViewCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.animation.Interpolator;
 import android.widget.Button;
 import android.widget.RelativeLayout;
+import android.widget.SeekBar;
 import android.widget.TextView;
 
 /**
  * The activity containing the main play area. Contains the tile grid, a ClickField selection dialog.
  * Includes the pause and finished dialogs.
  */
-public class PlayActivity extends AppCompatActivity implements Runnable
+public class PlayActivity extends AppCompatActivity
 {
     // the view with the tile grid, ClickField selection etc.
     private GameView plane;
@@ -40,8 +42,27 @@ public class PlayActivity extends AppCompatActivity implements Runnable
     public static final int goodColor = Color.BLUE;
     public static final int badColor = Color.RED;
 
-    // handles the updating of animation in the Activity
-    private final Handler updateHandler = new Handler();
+    // the smallest number of tiles of a desk drawn by the render thread of the gridSurface instead of the UI thread
+    private static final int SURFACE_MIN_TILES = 64 * 64;
+
+    // the animation of the tiles changed by a move, shared by all the grid renderers
+    static final FlipAnimation tileFlip = new FlipAnimation(0);
+
+    // draws the grid of big desks, placed under the plane
+    private GridSurfaceView gridSurface;
+
+    // the duration of sliding the dialog in or out in milliseconds
+    private static final int DIALOG_ANIMATION_LENGTH = 333;
+
+    // the cubic easing of the dialog slide
+    private static final Interpolator dialogEasing = new Interpolator()
+    {
+        @Override
+        public float getInterpolation(float input)
+        {
+            return getMovableViewPosition(input, 0.0f);
+        }
+    };
 
     // if we are currently counting the time to the time taken by the user for the level, this value is the time when we started the counting
     // the total time taken up to this point is then System.currentTimeMillis() - timerLastStart + millisTaken
@@ -60,11 +81,6 @@ public class PlayActivity extends AppCompatActivity implements Runnable
     // indicates the current state of the Activity
     private PlayState state;
 
-    // the state of showing or hiding the dialog
-    // 0.0 - animation start
-    // 1.0 - animation end
-    private float animationState;
-
     // indicates whether the current dialog is the paused dialog
     // should be false when state == PlayState.PLAYING
     private boolean paused = false;
@@ -73,13 +89,33 @@ public class PlayActivity extends AppCompatActivity implements Runnable
     // should be false when state == PlayState.PLAYING
     private boolean finished = false;
 
+    // the moves made in the current run of the level with checkpoints for going back in the run
+    private MoveHistory history;
+
+    // the number of moves of the run the GameDesk has been scrubbed back to in the pause dialog
+    // equal to history.size() when not scrubbed back
+    private int scrubbedMove;
+
+    // the moves of the best run of the level, replayed as a ghost during the play
+    // null if the level has not been finished yet
+    private MoveJournal ghostJournal;
+
+    // the GameDesk of the ghost run, only valid if ghostJournal is not null
+    private GameDesk ghostDesk;
+
+    // the index of the next move of the ghost run to apply on the ghostDesk
+    private int ghostNextMove;
+
     @Override
     protected void onCreate(Bundle savedInstanceState)
     {
         super.onCreate(savedInstanceState);
         this.plane = new GameView(this);
+        this.gridSurface = new GridSurfaceView(this.getApplicationContext(), this.plane.backgroundColor);
+        this.gridSurface.setVisibility(View.GONE);
         this.dialogLayout = (RelativeLayout) this.getLayoutInflater().inflate(R.layout.finished_and_pause, null);
         ViewGroup.LayoutParams layoutParams = new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT);
+        this.addContentView(this.gridSurface, layoutParams);
         this.addContentView(this.plane, layoutParams);
         this.addContentView(this.dialogLayout, layoutParams);
 
@@ -88,12 +124,63 @@ public class PlayActivity extends AppCompatActivity implements Runnable
         if (savedInstanceState == null)
         {
             this.level = this.getIntent().getIntExtra("level", 0);
-            this.gameDesk = Level.levels[this.level].getNewDesk();
+
+            // resume the saved run of the level if there is one (the app was killed during it), otherwise start a new one
+            IO.SavedRun savedRun = IO.loadRun(this.getApplicationContext());
+            if (savedRun != null && savedRun.level == this.level)
+            {
+                this.gameDesk = Level.levels[this.level].getNewDesk();
+                this.history = MoveHistory.replay(this.gameDesk, Level.levels[this.level].allowedClickFields, savedRun.journal);
+                this.millisTaken = savedRun.millisTaken;
+
+                // rewrite the file with only the valid moves, so the next moves are not appended after invalid ones or a torn record
+                IO.saveRunStart(this.getApplicationContext(), this.level, this.history.getJournal(), this.millisTaken);
+            }
+            else
+            {
+                this.gameDesk = Level.levels[this.level].getNewDesk();
+                this.history = new MoveHistory(this.gameDesk, Level.levels[this.level].allowedClickFields, new MoveJournal());
+                IO.saveRunStart(this.getApplicationContext(), this.level, this.history.getJournal(), 0);
+            }
             ClickField.availableClickFields = Level.levels[this.level].allowedClickFields;
             ClickField.selectedClickField = 0;
             this.state = PlayState.PLAYING;
+            this.startGhost();
+
+            // the app was killed after the last move of the run was saved but before the finish was, so finish the level now
+            // the time of the run is the time of the last move, no time is added for the finish
+            if (this.gameDesk.isCleared())
+            {
+                this.timerLastStart = System.currentTimeMillis();
+                this.finishLevel();
+            }
         }
 
+        // show the GameDesk after the move selected by the history SeekBar in the pause dialog
+        ((SeekBar) this.dialogLayout.findViewById(R.id.historySeekBar)).setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener()
+        {
+
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser)
+            {
+                if (fromUser && state == PlayState.DIALOG && paused)
+                {
+                    scrubTo(progress);
+                }
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar)
+            {
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar)
+            {
+            }
+
+        });
+
         // set the position of the dialog layout but after the dialog is loaded
         this.dialogLayout.post(new Runnable()
         {
@@ -109,6 +196,12 @@ public class PlayActivity extends AppCompatActivity implements Runnable
                 {
                     updateDialogPosition(1.0f);
                 }
+                else
+                {
+                    // continue the interrupted slide from its start
+                    updateDialogPosition(state == PlayState.SHOWING_DIALOG ? 0.0f : 1.0f);
+                    animateDialog();
+                }
             }
 
         });
@@ -121,15 +214,13 @@ public class PlayActivity extends AppCompatActivity implements Runnable
         state.putInt("level", this.level);
         state.putSerializable("state", this.state);
         state.putParcelable("desk", this.gameDesk);
+        state.putParcelable("journal", this.history.getJournal());
         state.putInt("millisTaken", this.millisTaken);
         if (this.state != PlayState.PLAYING)
         {
             state.putBoolean("paused", this.paused);
             state.putBoolean("finished", this.finished);
-            if (this.state != PlayState.DIALOG)
-            {
-                state.putFloat("animationState", this.animationState);
-            }
+            state.putInt("scrubbedMove", this.scrubbedMove);
             if (this.finished)
             {
                 state.putBoolean("isBest", this.isBest);
@@ -148,6 +239,11 @@ public class PlayActivity extends AppCompatActivity implements Runnable
             this.millisTaken += System.currentTimeMillis() - this.timerLastStart;
             this.timerLastStart = 0;
         }
+        if (!this.finished)
+        {
+            // the app may be killed in the background, so keep the time of the run
+            IO.saveRunTime(this.getApplicationContext(), this.millisTaken);
+        }
     }
 
     @Override
@@ -165,16 +261,14 @@ public class PlayActivity extends AppCompatActivity implements Runnable
     protected void onStop()
     {
         super.onStop();
-        this.plane.keepUpdating = false;
-        IO.saveData(this.getApplicationContext());
+        this.plane.frameScheduler.stop();
     }
 
     @Override
     protected void onStart()
     {
         super.onStart();
-        this.plane.keepUpdating = true;
-        this.plane.updateHandler.postDelayed(this.plane, 17);
+        this.plane.frameScheduler.start();
     }
 
     @Override
@@ -184,16 +278,15 @@ public class PlayActivity extends AppCompatActivity implements Runnable
         this.level = savedInstanceState.getInt("level");
         this.state = (PlayState) savedInstanceState.getSerializable("state");
         this.gameDesk = savedInstanceState.getParcelable("desk");
+        MoveJournal journal = savedInstanceState.getParcelable("journal");
+        this.history = new MoveHistory(Level.levels[this.level].getNewDesk(), Level.levels[this.level].allowedClickFields, journal);
         this.millisTaken = savedInstanceState.getInt("millisTaken");
+        this.startGhost();
         if (this.state != PlayState.PLAYING)
         {
             this.paused = savedInstanceState.getBoolean("paused");
             this.finished = savedInstanceState.getBoolean("finished");
-            if (this.state != PlayState.DIALOG)
-            {
-                this.animationState = savedInstanceState.getFloat("animationState");
-                this.updateHandler.postDelayed(this, 17);
-            }
+            this.scrubbedMove = savedInstanceState.getInt("scrubbedMove");
             if (this.finished)
             {
                 this.isBest = savedInstanceState.getBoolean("isBest");
@@ -208,7 +301,45 @@ public class PlayActivity extends AppCompatActivity implements Runnable
     }
 
     /**
-     * Sets the position of the dialog layout. Used for showing and hiding the dialog view.
+     * Loads the best run of the current level and resets its replay to the beginning.
+     */
+    private void startGhost()
+    {
+        this.ghostJournal = IO.loadReplay(this.getApplicationContext(), this.level);
+        this.ghostDesk = this.ghostJournal == null ? null : Level.levels[this.level].getNewDesk();
+        this.ghostNextMove = 0;
+    }
+
+    /**
+     * Applies the moves of the ghost run made up to the specified time on the ghostDesk.
+     * Should only be called when ghostJournal is not null.
+     *
+     * @param time the number of milliseconds taken in the level
+     */
+    private void stepGhost(int time)
+    {
+        ClickField[] fields = Level.levels[this.level].allowedClickFields;
+        while (this.ghostNextMove < this.ghostJournal.size() && this.ghostJournal.getTime(this.ghostNextMove) <= time)
+        {
+            this.ghostJournal.apply(this.ghostNextMove, this.ghostDesk, fields);
+            this.ghostNextMove++;
+        }
+    }
+
+    /**
+     * @return the total number of milliseconds taken in the level including the time after the last pause
+     */
+    private int getTimeTaken()
+    {
+        if (this.state == PlayState.PLAYING)
+        {
+            return this.millisTaken + (int) (System.currentTimeMillis() - this.timerLastStart);
+        }
+        return this.millisTaken;
+    }
+
+    /**
+     * Sets the position of the dialog layout. Used for placing the dialog view when it is not sliding.
      *
      * @param position the position of the dialog to set (from 0.0 to 1.0)
      */
@@ -225,7 +356,7 @@ public class PlayActivity extends AppCompatActivity implements Runnable
      */
     public static float getMovableViewPosition(float state, float initialSpeed)
     {
-        return (float) ((2 * initialSpeed - 2) * Math.pow(state, 3) + (3 - 3 * initialSpeed) * Math.pow(state, 2) + initialSpeed * state);
+        return ((2 * initialSpeed - 2) * state + (3 - 3 * initialSpeed)) * state * state + initialSpeed * state;
     }
 
     @Override
@@ -234,9 +365,9 @@ public class PlayActivity extends AppCompatActivity implements Runnable
         // unpause if paused
         if (this.state == PlayState.DIALOG && this.paused)
         {
+            this.resumeFromScrubbedMove();
             this.state = PlayState.HIDING_DIALOG;
-            this.animationState = 0;
-            this.updateHandler.postDelayed(this, 17);
+            this.animateDialog();
         }
         // close if finished
         else if (this.state == PlayState.DIALOG && this.finished)
@@ -250,9 +381,9 @@ public class PlayActivity extends AppCompatActivity implements Runnable
             this.timerLastStart = 0;
             this.state = PlayState.SHOWING_DIALOG;
             this.paused = true;
-            this.animationState = 0;
+            this.scrubbedMove = this.history.size();
             this.prepareDialogForPause();
-            this.updateHandler.postDelayed(this, 17);
+            this.animateDialog();
         }
     }
 
@@ -267,6 +398,35 @@ public class PlayActivity extends AppCompatActivity implements Runnable
         ((TextView) this.dialogLayout.findViewById(R.id.congratulationsText)).setText("Paused");
         this.dialogLayout.findViewById(R.id.timeText).setVisibility(View.INVISIBLE);
         this.dialogLayout.findViewById(R.id.bestText).setVisibility(View.INVISIBLE);
+        SeekBar historySeekBar = (SeekBar) this.dialogLayout.findViewById(R.id.historySeekBar);
+        historySeekBar.setMax(this.history.size());
+        historySeekBar.setProgress(this.scrubbedMove);
+        historySeekBar.setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * Shows the GameDesk after the specified move of the current run.
+     * The run continues from that move when the game is resumed.
+     *
+     * @param moveCount the number of moves from the beginning of the run
+     */
+    private void scrubTo(int moveCount)
+    {
+        this.scrubbedMove = moveCount;
+        this.gameDesk = this.history.getDeskAt(moveCount);
+        this.plane.invalidate();
+    }
+
+    /**
+     * Drops the moves after the move scrubbed to in the pause dialog, so that the run continues from it.
+     */
+    private void resumeFromScrubbedMove()
+    {
+        if (this.scrubbedMove != this.history.size())
+        {
+            this.history.truncate(this.scrubbedMove);
+            IO.saveRunStart(this.getApplicationContext(), this.level, this.history.getJournal(), this.millisTaken);
+        }
     }
 
     /**
@@ -285,6 +445,9 @@ public class PlayActivity extends AppCompatActivity implements Runnable
         // decide whether a next level is available
         this.showNextLevelButton = !(this.level == Level.levels.length - 1);
 
+        this.scrubbedMove = this.history.size();
+        IO.deleteRun(this.getApplicationContext());
+
         // push the maxlevel if appropriate
         if (this.level == Level.maxLevel && this.level != Level.levels.length - 1)
         {
@@ -292,11 +455,15 @@ public class PlayActivity extends AppCompatActivity implements Runnable
         }
 
         // change the best time
-        int currentBestTime = Level.bestTimes[this.level];
+        int currentBestTime = Level.getBestTime(this.level);
         if (currentBestTime == 0 || this.millisTaken < currentBestTime)
         {
-            Level.bestTimes[this.level] = this.millisTaken;
+            Level.setBestTime(this.level, this.millisTaken);
             this.isBest = true;
+
+            // the first completion of the level is always a new best time, so it also covers pushing the maxlevel
+            IO.saveCompletion(this.getApplicationContext(), this.level, this.millisTaken);
+            IO.saveReplay(this.getApplicationContext(), this.level, this.history.getJournal());
         }
         else
         {
@@ -304,7 +471,7 @@ public class PlayActivity extends AppCompatActivity implements Runnable
         }
 
         this.prepareDialogForFinished();
-        this.updateHandler.postDelayed(this, 17);
+        this.animateDialog();
     }
 
     /**
@@ -313,6 +480,7 @@ public class PlayActivity extends AppCompatActivity implements Runnable
     private void prepareDialogForFinished()
     {
         ((TextView) this.dialogLayout.findViewById(R.id.congratulationsText)).setText("Congratulations!");
+        this.dialogLayout.findViewById(R.id.historySeekBar).setVisibility(View.INVISIBLE);
         TextView timeTakenText = (TextView) this.dialogLayout.findViewById(R.id.timeText);
         timeTakenText.setText("You've finished this level in " + formatTime(this.millisTaken) + " seconds.");
         timeTakenText.setVisibility(View.VISIBLE);
@@ -324,7 +492,7 @@ public class PlayActivity extends AppCompatActivity implements Runnable
         }
         else
         {
-            bestTimeText.setText("The best time is " + formatTime(Level.bestTimes[this.level]) + " seconds.");
+            bestTimeText.setText("The best time is " + formatTime(Level.getBestTime(this.level)) + " seconds.");
         }
         Button nextLevelButton = (Button) this.dialogLayout.findViewById(R.id.nextLevelOrResumeButton);
         nextLevelButton.setText("NEXT LEVEL");
@@ -340,7 +508,7 @@ public class PlayActivity extends AppCompatActivity implements Runnable
      */
     public static String formatTime(int time)
     {
-        return String.valueOf(time / 1000) + "." + String.format("%03d", time % 1000);
+        return new TextBuffer(16).appendTime(time).toString();
     }
 
     /**
@@ -354,24 +522,27 @@ public class PlayActivity extends AppCompatActivity implements Runnable
         {
             if (this.paused)
             {
-                // hide the pause dialog
+                // hide the pause dialog and continue from the move scrubbed to
+                this.resumeFromScrubbedMove();
                 this.state = PlayState.HIDING_DIALOG;
                 this.paused = false;
-                this.animationState = 0;
-                this.updateHandler.postDelayed(this, 17);
+                this.animateDialog();
             }
             else if (this.finished)
             {
                 // advance the level and hide the finished dialog
                 this.level++;
                 this.gameDesk = Level.levels[this.level].getNewDesk();
+                this.history = new MoveHistory(this.gameDesk, Level.levels[this.level].allowedClickFields, new MoveJournal());
+                this.startGhost();
                 ClickField.availableClickFields = Level.levels[this.level].allowedClickFields;
                 ClickField.selectedClickField = 0;
                 this.state = PlayState.HIDING_DIALOG;
-                this.animationState = 0;
-                this.updateHandler.postDelayed(this, 17);
+                this.animateDialog();
                 this.plane.updateGameDeskComponentSizes();
+                this.plane.invalidate();
                 this.millisTaken = 0;
+                IO.saveRunStart(this.getApplicationContext(), this.level, this.history.getJournal(), 0);
             }
         }
     }
@@ -385,6 +556,7 @@ public class PlayActivity extends AppCompatActivity implements Runnable
     {
         if (v.getId() == R.id.exitButton && this.state == PlayState.DIALOG)
         {
+            IO.deleteRun(this.getApplicationContext());
             this.finish();
         }
     }
@@ -399,65 +571,68 @@ public class PlayActivity extends AppCompatActivity implements Runnable
         if (v.getId() == R.id.replayButton && this.state == PlayState.DIALOG)
         {
             this.gameDesk = Level.levels[this.level].getNewDesk();
+            this.history = new MoveHistory(this.gameDesk, Level.levels[this.level].allowedClickFields, new MoveJournal());
+            this.startGhost();
+            this.plane.invalidate();
             this.state = PlayState.HIDING_DIALOG;
-            this.animationState = 0;
             this.millisTaken = 0;
-            this.updateHandler.postDelayed(this, 17);
+            IO.saveRunStart(this.getApplicationContext(), this.level, this.history.getJournal(), 0);
+            this.animateDialog();
         }
     }
 
     /**
-     * Updates the Activity.
+     * Starts sliding the dialog in or out depending on whether the state is SHOWING_DIALOG or HIDING_DIALOG.
+     * The slide is time-based and run on the UI thread by a ViewPropertyAnimator, which draws the dialog from a hardware layer
+     * during the slide, so a late frame skips ahead instead of slowing the slide down.
      */
-    @Override
-    public void run()
+    private void animateDialog()
     {
-        if (this.state == PlayState.HIDING_DIALOG || this.state == PlayState.SHOWING_DIALOG)
-        {
-            // update the animation state
-            this.animationState += 0.05;
-            if (this.animationState > 1)
-            {
-                this.animationState = 1;
-            }
-
-            // calculate the dialog position from the animation state depending of whether we are showing or hiding
-            float dialogPosition = this.state == PlayState.SHOWING_DIALOG ? this.animationState : 1 - this.animationState;
-
-            // update the dialog position using to the calculated one
-            this.updateDialogPosition(dialogPosition);
+        float targetX = this.state == PlayState.SHOWING_DIALOG ? 0 : -this.dialogLayout.getWidth();
+        ViewCompat.animate(this.dialogLayout)
+                .x(targetX)
+                .setDuration(DIALOG_ANIMATION_LENGTH)
+                .setInterpolator(dialogEasing)
+                .withLayer()
+                .withEndAction(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        onDialogAnimationEnd();
+                    }
+                })
+                .start();
+    }
 
-            // do appropriate actions when the animation has finished
-            if (this.animationState == 1)
-            {
-                this.animationState = 0;
+    /**
+     * Does the appropriate actions when the dialog has slid in or out.
+     */
+    private void onDialogAnimationEnd()
+    {
+        if (this.state == PlayState.HIDING_DIALOG)
+        {
+            this.timerLastStart = System.currentTimeMillis();
+            this.paused = false;
+            this.finished = false;
+            this.state = PlayState.PLAYING;
 
-                if (this.state == PlayState.HIDING_DIALOG)
-                {
-                    this.timerLastStart = System.currentTimeMillis();
-                    this.paused = false;
-                    this.finished = false;
-                    this.state = PlayState.PLAYING;
-                }
-                else
-                {
-                    this.state = PlayState.DIALOG;
-                }
-            }
-            else
-            {
-                this.updateHandler.postDelayed(this, 17);
-            }
+            // the timer is running again
+            this.plane.frameScheduler.requestFrame();
+        }
+        else if (this.state == PlayState.SHOWING_DIALOG)
+        {
+            this.state = PlayState.DIALOG;
         }
     }
 
-    private class GameView extends View implements Runnable
+    private class GameView extends View implements FrameScheduler.Callback
     {
 
         private final PlayActivity attachedActivity;
         private final GestureDetectorCompat gestureDetector;
-        private boolean keepUpdating = false;
-        private final Handler updateHandler = new Handler();
+        private final ScaleGestureDetector scaleDetector;
+        private final FrameScheduler frameScheduler = new FrameScheduler(this, this);
         private final int backgroundColor = Color.rgb(220, 220, 220);
         private final int selectionDialogSelectedColor = Color.rgb(100, 0, 180);
         private final int selectionDialogNotSelectedColor = Color.rgb(200, 0, 255);
@@ -482,6 +657,16 @@ public class PlayActivity extends AppCompatActivity implements Runnable
 
         private float tileSize;
 
+        // the bounds of the area where the grid is drawn, the zoomed grid is clipped to them
+        private Rect gridSpaceBounds;
+
+        // the zoom of the grid, the grid fits the grid space with the zoom 1
+        private float zoom = 1;
+
+        // the top left corner of the zoomed grid, the same as gridCornerX and gridCornerY with the zoom 1
+        private float viewCornerX;
+        private float viewCornerY;
+
         // the number of columns of the GameDesk
         private int tilesInWidth;
 
@@ -491,6 +676,9 @@ public class PlayActivity extends AppCompatActivity implements Runnable
         private Rect levelInfoBounds;
         private Rect timeInfoBounds;
 
+        // the bounds of the statistics of the grid drawing shown in debug builds
+        private Rect debugInfoBounds;
+
         // coordinates of the ClickField selection dialog squares
         private int prevSelectionStartX;
         private int prevSelectionStartY;
@@ -501,8 +689,23 @@ public class PlayActivity extends AppCompatActivity implements Runnable
 
         private int selectionSquareSize;
 
-        // a path object used for the tile grid change animations
-        private Path gridAnimationPath;
+        // draws the grid when it is not drawn by the gridSurface
+        private final GridRenderer gridRenderer = new GridRenderer(this.backgroundColor);
+
+        // whether the grid is drawn by the render thread of the gridSurface
+        private boolean surfaceMode;
+
+        // the GameDesk drawn by the gridRenderer or the gridSurface, the whole grid is redrawn when the GameDesk is replaced
+        private GameDesk gridDesk;
+
+        // the tiles changed by the last move - the only tiles which can be animated
+        private int changedMinX;
+        private int changedMinY;
+        private int changedMaxX;
+        private int changedMaxY;
+
+        // the bounds of the whole ClickField selection dialog
+        private Rect selectionBounds;
 
         /**
          * Indicates whether the initializeComponentSizes method has been already called and therefore the component sizes are initialized.
@@ -511,11 +714,17 @@ public class PlayActivity extends AppCompatActivity implements Runnable
          */
         private boolean initialized = false;
 
-        private StringDraw.StringDrawData timeInfoDraw = null;
-        private int calibrationLimit = 0;
 
         private StringDraw.StringDrawData levelInfoDraw;
 
+        // the texts drawn every frame, built in place so that drawing does not allocate
+        private final TextBuffer levelText = new TextBuffer(16);
+        private final TextBuffer timeText = new TextBuffer(16);
+        private final TextBuffer debugText = new TextBuffer(128);
+
+        // the images of the ClickFields drawn in the selection dialog
+        private final ClickFieldThumbnails thumbnails = new ClickFieldThumbnails();
+
         /**
          * Precomputes the sizes and locations of various components, so that it does not need to be recalculated in every redraw or tap.
          */
@@ -535,6 +744,8 @@ public class PlayActivity extends AppCompatActivity implements Runnable
             this.timeInfoBounds = new Rect(0, playYStart * 2 / 3, this.width, playYStart);
             StringDraw.applyBordersChange(this.timeInfoBounds, playYStart / 10);
 
+            this.debugInfoBounds = new Rect(0, 0, this.width / 2, playYStart / 8);
+
             // calculates the locations of the selection dialog and the size of the grid space
             if (this.width < this.height - playYStart)
             {
@@ -588,6 +799,8 @@ public class PlayActivity extends AppCompatActivity implements Runnable
                 this.gridSpaceHeight = selectionSpaceHeight;
             }
 
+            this.gridSpaceBounds = new Rect(0, playYStart, this.gridSpaceWidth, playYStart + this.gridSpaceHeight);
+
             // calculates the size of one tile on the GameDesk and the location of the GameDesk
             this.tilesInWidth = this.attachedActivity.gameDesk.width;
             this.tilesInHeight = this.attachedActivity.gameDesk.height;
@@ -606,10 +819,16 @@ public class PlayActivity extends AppCompatActivity implements Runnable
             }
 
             this.p.setTypeface(Typeface.DEFAULT);
-            this.levelInfoDraw = StringDraw.getMaxStringData("Level " + (this.attachedActivity.level + 1), this.levelInfoBounds, StringDraw.TextAlign.MIDDLE, this.p);
+            this.levelText.clear().append("Level ").append(this.attachedActivity.level + 1);
+            this.levelInfoDraw = StringDraw.getMaxStringData(this.levelText.toString(), this.levelInfoBounds, StringDraw.TextAlign.MIDDLE, this.p);
+
+            // the biggest field in the dialog is the selected one drawn with a border of a tenth of the square
+            this.thumbnails.setMaxSize(this.selectionSquareSize - 2 * (this.selectionSquareSize / 10));
+
+            this.selectionBounds = new Rect(this.prevSelectionStartX, this.prevSelectionStartY, this.nextSelectionStartX + this.selectionSquareSize, this.nextSelectionStartY + this.selectionSquareSize);
 
-            this.gridAnimationPath = new Path();
-            this.gridAnimationPath.setFillType(Path.FillType.EVEN_ODD);
+            this.updateRenderMode();
+            this.resetViewport();
 
             this.initialized = true;
         }
@@ -641,7 +860,112 @@ public class PlayActivity extends AppCompatActivity implements Runnable
             }
 
             this.p.setTypeface(Typeface.DEFAULT);
-            this.levelInfoDraw = StringDraw.getMaxStringData("Level " + (this.attachedActivity.level + 1), this.levelInfoBounds, StringDraw.TextAlign.MIDDLE, this.p);
+            this.levelText.clear().append("Level ").append(this.attachedActivity.level + 1);
+            this.levelInfoDraw = StringDraw.getMaxStringData(this.levelText.toString(), this.levelInfoBounds, StringDraw.TextAlign.MIDDLE, this.p);
+
+            this.updateRenderMode();
+            this.resetViewport();
+        }
+
+        /**
+         * Chooses whether the grid is drawn by the gridSurface according to the size of the GameDesk and makes the grid be redrawn whole.
+         */
+        private void updateRenderMode()
+        {
+            PlayActivity activity = this.attachedActivity;
+            this.surfaceMode = this.tilesInWidth * this.tilesInHeight >= SURFACE_MIN_TILES;
+            this.gridRenderer.setSize(this.tilesInWidth, this.tilesInHeight, this.tileSize);
+            this.gridDesk = null;
+            activity.gridSurface.publish(null);
+            activity.gridSurface.setVisibility(this.surfaceMode ? View.VISIBLE : View.GONE);
+
+            // the surface under the plane can only be seen through a transparent background
+            this.setBackgroundColor(this.surfaceMode ? Color.TRANSPARENT : this.backgroundColor);
+        }
+
+        /**
+         * Zooms the grid out so that it fits the grid space again.
+         */
+        private void resetViewport()
+        {
+            this.zoom = 1;
+            this.viewCornerX = this.gridCornerX;
+            this.viewCornerY = this.gridCornerY;
+            this.gridRenderer.setZoom(1);
+        }
+
+        /**
+         * Zooms the grid about a point. The zoom is kept between 1 and the zoom which makes the tiles half as big as the selection squares.
+         *
+         * @param factor the factor to multiply the zoom by
+         * @param focusX the x location of the point which stays in place
+         * @param focusY the y location of the point which stays in place
+         */
+        private void zoomBy(float factor, float focusX, float focusY)
+        {
+            float maxZoom = Math.max(1, this.selectionSquareSize / 2f / this.tileSize);
+            float newZoom = Math.max(1, Math.min(maxZoom, this.zoom * factor));
+            this.viewCornerX = focusX + (this.viewCornerX - focusX) * newZoom / this.zoom;
+            this.viewCornerY = focusY + (this.viewCornerY - focusY) * newZoom / this.zoom;
+            this.zoom = newZoom;
+            this.onViewportChanged();
+        }
+
+        /**
+         * Moves the zoomed grid.
+         *
+         * @param distanceX the distance to move the grid to the left
+         * @param distanceY the distance to move the grid up
+         */
+        private void panBy(float distanceX, float distanceY)
+        {
+            this.viewCornerX -= distanceX;
+            this.viewCornerY -= distanceY;
+            this.onViewportChanged();
+        }
+
+        /**
+         * Keeps the zoomed grid in the grid space and makes the grid be redrawn with the new zoom and location.
+         */
+        private void onViewportChanged()
+        {
+            if (this.zoom == 1)
+            {
+                this.viewCornerX = this.gridCornerX;
+                this.viewCornerY = this.gridCornerY;
+            }
+            else
+            {
+                this.viewCornerX = this.clampViewCorner(this.viewCornerX, this.tilesInWidth * this.tileSize * this.zoom, this.gridSpaceBounds.left, this.gridSpaceBounds.right);
+                this.viewCornerY = this.clampViewCorner(this.viewCornerY, this.tilesInHeight * this.tileSize * this.zoom, this.gridSpaceBounds.top, this.gridSpaceBounds.bottom);
+            }
+            this.gridRenderer.setZoom(this.zoom);
+            if (this.surfaceMode)
+            {
+                this.publishFrame();
+            }
+            else
+            {
+                this.invalidate(this.gridSpaceBounds);
+            }
+        }
+
+        /**
+         * Clamps the location of the zoomed grid in one direction, so that the grid covers the grid space or is centered in it if it is smaller.
+         *
+         * @param corner     the location of the start of the grid
+         * @param gridSize   the size of the zoomed grid
+         * @param spaceStart the start of the grid space
+         * @param spaceEnd   the end of the grid space
+         * @return the clamped location of the start of the grid
+         */
+        private float clampViewCorner(float corner, float gridSize, int spaceStart, int spaceEnd)
+        {
+            if (gridSize <= spaceEnd - spaceStart)
+            {
+                return spaceStart + (spaceEnd - spaceStart - gridSize) / 2;
+            }
+            return Math.max(spaceEnd - gridSize, Math.min(spaceStart, corner));
         }
 
         public GameView(PlayActivity playActivity)
@@ -650,25 +974,48 @@ public class PlayActivity extends AppCompatActivity implements Runnable
             this.attachedActivity = playActivity;
             this.setBackgroundColor(backgroundColor);
             this.gestureDetector = new GestureDetectorCompat(this.attachedActivity.getApplicationContext(), new GestureListener(this));
+            this.scaleDetector = new ScaleGestureDetector(this.attachedActivity.getApplicationContext(), new ScaleListener(this));
         }
 
         /**
-         * Implementation of the Runnable interface - calls the update method.
+         * Updates the view for a frame and decides when the next frame is needed.
+         * Frames are needed every display refresh only during the animations, otherwise the view is only redrawn
+         * when the shown timer second changes or the ghost run makes its next move.
          */
-        public void run()
+        @Override
+        public long onFrame()
         {
             this.update();
-            if (keepUpdating)
+
+            PlayActivity activity = this.attachedActivity;
+            if (this.animatingFieldChoice || activity.gameDesk.isAnimating)
             {
-                this.updateHandler.postDelayed(this, 17);
+                return FrameScheduler.NEXT_FRAME;
             }
+            if (activity.state != PlayState.PLAYING)
+            {
+                return FrameScheduler.IDLE;
+            }
+            int timeTaken = activity.getTimeTaken();
+            long untilNextFrame = 1000 - timeTaken % 1000;
+            if (activity.ghostJournal != null && activity.ghostNextMove < activity.ghostJournal.size())
+            {
+                untilNextFrame = Math.min(untilNextFrame, Math.max(1, activity.ghostJournal.getTime(activity.ghostNextMove) - timeTaken));
+            }
+            return untilNextFrame;
         }
 
         /**
-         * Updates the animations and invalidates the view.
+         * Updates the animations and invalidates the parts of the view which change.
          */
         private void update()
         {
+            if (!this.initialized)
+            {
+                this.invalidate();
+                return;
+            }
+
             if (this.animatingFieldChoice)
             {
                 this.choiceState += 0.1;
@@ -676,8 +1023,147 @@ public class PlayActivity extends AppCompatActivity implements Runnable
                 {
                     this.animatingFieldChoice = false;
                 }
+                this.invalidate(this.selectionBounds);
+            }
+
+            PlayActivity activity = this.attachedActivity;
+            if (activity.gameDesk.isAnimating && !this.surfaceMode)
+            {
+                this.invalidateTiles(this.changedMinX, this.changedMinY, this.changedMaxX, this.changedMaxY);
+            }
+
+            // the timer
+            this.invalidate(this.timeInfoBounds);
+
+            if (BuildConfig.DEBUG)
+            {
+                this.invalidate(this.debugInfoBounds);
+            }
+
+            // the tiles changed by the moves of the ghost run which are due
+            if (activity.ghostJournal != null && !this.surfaceMode)
+            {
+                int timeTaken = activity.getTimeTaken();
+                ClickField[] fields = Level.levels[activity.level].allowedClickFields;
+                for (int i = activity.ghostNextMove; i < activity.ghostJournal.size() && activity.ghostJournal.getTime(i) <= timeTaken; i++)
+                {
+                    ClickField field = fields[activity.ghostJournal.getFieldIndex(i)];
+                    int x = activity.ghostJournal.getX(i);
+                    int y = activity.ghostJournal.getY(i);
+                    this.invalidateTiles(x + field.getMinX(), y + field.getMinY(), x + field.getMaxX(), y + field.getMaxY());
+                }
+            }
+        }
+
+        /**
+         * Invalidates the part of the view with the specified tiles of the grid.
+         *
+         * @param minX the lowest x coordinate of the tiles
+         * @param minY the lowest y coordinate of the tiles
+         * @param maxX the highest x coordinate of the tiles
+         * @param maxY the highest y coordinate of the tiles
+         */
+        private void invalidateTiles(int minX, int minY, int maxX, int maxY)
+        {
+            // include the grid lines around the tiles
+            float drawnTileSize = this.tileSize * this.zoom;
+            int cornerX = (int) this.viewCornerX;
+            int cornerY = (int) this.viewCornerY;
+            int lineSize = (int) Math.ceil(drawnTileSize / 64) + 1;
+            this.invalidate((int) (cornerX + minX * drawnTileSize) - lineSize, (int) (cornerY + minY * drawnTileSize) - lineSize,
+                    (int) Math.ceil(cornerX + (maxX + 1) * drawnTileSize) + lineSize, (int) Math.ceil(cornerY + (maxY + 1) * drawnTileSize) + lineSize);
+        }
+
+        /**
+         * Brings the drawn grid up to date with the GameDesk and the ghost run.
+         * Redraws the whole grid only when the GameDesk has been replaced, otherwise only the tiles changed by the moves of the ghost.
+         * In the surface mode, publishes a new Frame to the gridSurface when anything has changed.
+         *
+         * @param time the number of milliseconds taken in the level
+         */
+        private void updateGrid(int time)
+        {
+            PlayActivity activity = this.attachedActivity;
+            boolean changed = false;
+            if (this.gridDesk != activity.gameDesk)
+            {
+                this.gridDesk = activity.gameDesk;
+                this.changedMinX = 0;
+                this.changedMinY = 0;
+                this.changedMaxX = this.tilesInWidth - 1;
+                this.changedMaxY = this.tilesInHeight - 1;
+                if (!this.surfaceMode)
+                {
+                    this.gridRenderer.redrawImage(activity.gameDesk, activity.ghostDesk);
+                }
+                changed = true;
+            }
+
+            // apply the due moves of the ghost run and redraw the tiles they changed
+            if (activity.ghostJournal != null)
+            {
+                int firstMove = activity.ghostNextMove;
+                activity.stepGhost(time);
+                changed |= firstMove != activity.ghostNextMove;
+                ClickField[] fields = Level.levels[activity.level].allowedClickFields;
+                for (int i = firstMove; i < activity.ghostNextMove && !this.surfaceMode; i++)
+                {
+                    ClickField field = fields[activity.ghostJournal.getFieldIndex(i)];
+                    int x = activity.ghostJournal.getX(i);
+                    int y = activity.ghostJournal.getY(i);
+                    if (activity.ghostDesk.canApply(field, x, y))
+                    {
+                        this.gridRenderer.drawTiles(activity.gameDesk, activity.ghostDesk, x + field.getMinX(), y + field.getMinY(), x + field.getMaxX(), y + field.getMaxY());
+                    }
+                }
+            }
+
+            if (this.surfaceMode && changed)
+            {
+                this.publishFrame();
+            }
+        }
+
+        /**
+         * Hands the current state of the grid over to the render thread of the gridSurface.
+         * The desks are forked, so the published Frame is not affected by the following moves.
+         */
+        private void publishFrame()
+        {
+            PlayActivity activity = this.attachedActivity;
+            GameDesk ghostDesk = activity.ghostDesk == null ? null : activity.ghostDesk.fork();
+            activity.gridSurface.publish(new GridSurfaceView.Frame(activity.gameDesk.fork(), ghostDesk, this.tileSize, this.zoom,
+                    (int) this.viewCornerX, (int) this.viewCornerY, this.gridSpaceBounds, this.changedMinX, this.changedMinY, this.changedMaxX, this.changedMaxY));
+        }
+
+        /**
+         * Updates the drawn grid and invalidates the changed tiles after a move has been made on the GameDesk.
+         *
+         * @param field the applied ClickField
+         * @param x     the x coordinate of the tile the field was applied on
+         * @param y     the y coordinate of the tile the field was applied on
+         */
+        private void onMove(ClickField field, int x, int y)
+        {
+            PlayActivity activity = this.attachedActivity;
+            this.changedMinX = x + field.getMinX();
+            this.changedMinY = y + field.getMinY();
+            this.changedMaxX = x + field.getMaxX();
+            this.changedMaxY = y + field.getMaxY();
+            if (this.gridDesk != activity.gameDesk)
+            {
+                // the whole grid will be redrawn
+                return;
+            }
+            if (this.surfaceMode)
+            {
+                this.publishFrame();
+            }
+            else
+            {
+                this.gridRenderer.drawTiles(activity.gameDesk, activity.ghostDesk, this.changedMinX, this.changedMinY, this.changedMaxX, this.changedMaxY);
+                this.invalidateTiles(this.changedMinX, this.changedMinY, this.changedMaxX, this.changedMaxY);
             }
-            this.invalidate();
         }
 
         @Override
@@ -689,97 +1175,57 @@ public class PlayActivity extends AppCompatActivity implements Runnable
             // draw the level and time info
             this.p.setColor(Color.BLACK);
             this.p.setTypeface(Typeface.DEFAULT);
-            StringDraw.drawMaxString("Level " + (this.attachedActivity.level + 1), this.levelInfoDraw, canvas, this.p);
-            int millisecondsTaken = this.attachedActivity.millisTaken;
-            if (this.attachedActivity.state == PlayState.PLAYING)
-            {
-                millisecondsTaken += System.currentTimeMillis() - this.attachedActivity.timerLastStart;
-            }
+            StringDraw.drawMaxString(this.levelText, this.levelInfoDraw, canvas, this.p);
+            int millisecondsTaken = this.attachedActivity.getTimeTaken();
             this.p.setTypeface(Typeface.MONOSPACE);
-            if (this.timeInfoDraw == null || this.calibrationLimit <= millisecondsTaken / 1000)
+            this.timeText.clear().append(millisecondsTaken / 1000).append(" s");
+            // the timer is monospaced, so it is measured only once per number of digits
+            StringDraw.StringDrawData timeInfoDraw = StringDraw.getMaxNumberData(this.timeText, this.timeInfoBounds, StringDraw.TextAlign.MIDDLE, this.p);
+            StringDraw.drawMaxString(this.timeText, timeInfoDraw, canvas, this.p);
+
+            // bring the grid up to date and draw it unless it is drawn by the gridSurface
+            this.updateGrid(millisecondsTaken);
+            GameDesk desk = this.attachedActivity.gameDesk;
+            if (!this.surfaceMode)
             {
-                int digCount = millisecondsTaken < 1000 ? 1 : (int) Math.floor(Math.log10(millisecondsTaken / 1000)) + 1;
-                this.timeInfoDraw = StringDraw.getMaxStringData(millisecondsTaken / 1000 + " s", this.timeInfoBounds, StringDraw.TextAlign.MIDDLE, this.p);
-                this.calibrationLimit = 1;
-                for (int i = 0; i < digCount; i++)
-                {
-                    this.calibrationLimit *= 10;
-                }
+                // only the tiles in the grid space are drawn when the grid is zoomed
+                canvas.save();
+                canvas.clipRect(this.gridSpaceBounds);
+                this.gridRenderer.drawImage(canvas, (int) this.viewCornerX, (int) this.viewCornerY, this.gridSpaceBounds, desk, this.attachedActivity.ghostDesk);
             }
-            StringDraw.drawMaxString(millisecondsTaken / 1000 + " s", this.timeInfoDraw, canvas, this.p);
-
-            float animationFraction = 0;
 
             // update the animation of the grid
-            if (this.attachedActivity.gameDesk.isAnimating)
+            if (desk.isAnimating)
             {
-                float animState = (System.currentTimeMillis() - this.attachedActivity.gameDesk.animationBegin) / (float) GameDesk.animationLength;
+                float animState = (System.currentTimeMillis() - desk.animationBegin) / (float) GameDesk.animationLength;
                 if (animState > 1)
                 {
-                    this.attachedActivity.gameDesk.isAnimating = false;
+                    desk.isAnimating = false;
                 }
-                animationFraction = getMovableViewPosition(animState, 0);
-            }
-
-            boolean isAnimating = this.attachedActivity.gameDesk.isAnimating;
-
-            // drawing the grid
-            for (int i = 0; i < this.tilesInWidth; i++)
-            {
-                for (int j = 0; j < this.tilesInHeight; j++)
+                if (!this.surfaceMode)
                 {
-                    boolean animated = isAnimating && this.attachedActivity.gameDesk.animating[i + j * this.attachedActivity.gameDesk.width];
-                    p.setColor(this.attachedActivity.gameDesk.state(i, j) ^ animated ? badColor : goodColor);
-                    int rectStartX = (int) (this.gridCornerX + i * this.tileSize);
-                    int rectStartY = (int) (this.gridCornerY + j * this.tileSize);
-                    canvas.drawRect(rectStartX, rectStartY, rectStartX + this.tileSize, rectStartY + this.tileSize, this.p);
-                    if (animated)
-                    {
-                        // the portion of the bottom triangle of the cover
-                        float bottomFraction = 2 * Math.min(animationFraction, 0.5f);
-
-                        float p1x = rectStartX + this.tileSize * (1 - bottomFraction);
-                        float p1y = rectStartY + this.tileSize;
-                        float p2x = rectStartX + this.tileSize;
-                        float p2y = rectStartY + this.tileSize;
-                        float p3x = rectStartX + this.tileSize;
-                        float p3y = rectStartY + this.tileSize * (1 - bottomFraction);
-                        if (animationFraction > 0.3)
-                        {
-                            p.setTextSize(30);
-                        }
-                        p.setColor(this.attachedActivity.gameDesk.state(i, j) ? badColor : goodColor);
-                        this.gridAnimationPath.reset();
-                        this.gridAnimationPath.moveTo(p1x, p1y);
-                        this.gridAnimationPath.lineTo(p2x, p2y);
-                        this.gridAnimationPath.lineTo(p3x, p3y);
-
-                        // if the animation is more than half the way through, the top triangle should be drawn also
-                        if (animationFraction > 0.5)
-                        {
-                            // the portion of the top triangle of the cover
-                            float topFraction = 2 * (animationFraction - 0.5f);
-
-                            this.gridAnimationPath.lineTo(rectStartX + this.tileSize * (1 - topFraction), rectStartY);
-                            this.gridAnimationPath.lineTo(rectStartX, rectStartY + this.tileSize * (1 - topFraction));
-                        }
-                        this.gridAnimationPath.close();
-                        this.p.setColor(this.attachedActivity.gameDesk.state(i, j) ? badColor : goodColor);
-                        canvas.drawPath(this.gridAnimationPath, this.p);
-                    }
+                    // drawing the animated tiles over the cached grid, only the tiles changed by the last move can be animated
+                    this.gridRenderer.drawAnimation(canvas, (int) this.viewCornerX, (int) this.viewCornerY, desk, animState,
+                            this.changedMinX, this.changedMinY, this.changedMaxX, this.changedMaxY);
                 }
             }
-
-            // drawing the empty lines in the grid
-            p.setColor(this.backgroundColor);
-            p.setStrokeWidth(this.tileSize / 32);
-            for (int i = 0; i < this.tilesInWidth + 1; i++)
+            if (!this.surfaceMode)
             {
-                canvas.drawLine(this.gridCornerX + i * this.tileSize, this.gridCornerY, this.gridCornerX + i * this.tileSize, this.gridCornerY + this.tilesInHeight * this.tileSize, p);
+                canvas.restore();
             }
-            for (int i = 0; i < this.tilesInHeight + 1; i++)
+
+            if (BuildConfig.DEBUG && !this.surfaceMode)
             {
-                canvas.drawLine(this.gridCornerX, this.gridCornerY + i * this.tileSize, this.gridCornerX + this.tilesInWidth * this.tileSize, this.gridCornerY + i * this.tileSize, p);
+                // how many draw calls merging the runs of tiles saves
+                long tiles = this.gridRenderer.getTilesDrawn();
+                long rects = this.gridRenderer.getTileRectsDrawn();
+                long animatedTiles = this.gridRenderer.getAnimatedTilesDrawn();
+                long animationPaths = this.gridRenderer.getAnimationPathsDrawn();
+                this.p.setColor(Color.BLACK);
+                this.p.setTypeface(Typeface.DEFAULT);
+                this.debugText.clear().append("tile rects ").append(rects).append(" / ").append(tiles).append(" (-").append(tiles == 0 ? 0 : 100 - 100 * rects / tiles).append("%)")
+                        .append(", anim paths ").append(animationPaths).append(" / ").append(animatedTiles);
+                StringDraw.drawMaxString(this.debugText, this.debugInfoBounds, StringDraw.TextAlign.UP_LEFT, canvas, this.p);
             }
 
             // drawing the field list
@@ -800,25 +1246,25 @@ public class PlayActivity extends AppCompatActivity implements Runnable
                         size *= this.choiceState * this.choiceState;
                         int centerX = this.prevSelectionStartX + this.selectionSquareSize / 2;
                         int centerY = this.prevSelectionStartY + this.selectionSquareSize / 2;
-                        drawClickField(ClickField.availableClickFields[ClickField.selectedClickField - 1], centerX - size / 2, centerY - size / 2, centerX + size / 2, centerY + size / 2, canvas, this.p);
+                        this.thumbnails.draw(ClickField.availableClickFields[ClickField.selectedClickField - 1], centerX - size / 2, centerY - size / 2, centerX + size / 2, centerY + size / 2, canvas);
                     }
                     int movInCenterX = this.prevSelectionStartX + this.selectionSquareSize / 2 + (int) ((this.curSelectionStartX - this.prevSelectionStartX) * this.choiceState * this.choiceState);
                     int movInCenterY = this.prevSelectionStartY + this.selectionSquareSize / 2 + (int) ((this.curSelectionStartY - this.prevSelectionStartY) * this.choiceState * this.choiceState);
                     int movInSize = this.selectionSquareSize - 4 * border + (int) (2 * border * this.choiceState * this.choiceState);
-                    drawClickField(ClickField.availableClickFields[ClickField.selectedClickField], movInCenterX - movInSize / 2, movInCenterY - movInSize / 2, movInCenterX + movInSize / 2, movInCenterY + movInSize / 2, canvas, this.p);
+                    this.thumbnails.draw(ClickField.availableClickFields[ClickField.selectedClickField], movInCenterX - movInSize / 2, movInCenterY - movInSize / 2, movInCenterX + movInSize / 2, movInCenterY + movInSize / 2, canvas);
                     if (ClickField.selectedClickField != ClickField.availableClickFields.length - 1)
                     {
                         int movOutCenterX = movInCenterX + this.curSelectionStartX - this.prevSelectionStartX;
                         int movOutCenterY = movInCenterY + this.curSelectionStartY - this.prevSelectionStartY;
                         int movOutSize = this.selectionSquareSize - 2 * border - (int) (2 * border * this.choiceState * this.choiceState);
-                        drawClickField(ClickField.availableClickFields[ClickField.selectedClickField + 1], movOutCenterX - movOutSize / 2, movOutCenterY - movOutSize / 2, movOutCenterX + movOutSize / 2, movOutCenterY + movOutSize / 2, canvas, this.p);
+                        this.thumbnails.draw(ClickField.availableClickFields[ClickField.selectedClickField + 1], movOutCenterX - movOutSize / 2, movOutCenterY - movOutSize / 2, movOutCenterX + movOutSize / 2, movOutCenterY + movOutSize / 2, canvas);
                         if (ClickField.selectedClickField != ClickField.availableClickFields.length - 2)
                         {
                             int popOutSize = (int) ((this.selectionSquareSize - 4 * border) * (1 - this.choiceState * this.choiceState));
                             int popOutRad = popOutSize / 2;
                             int popOutCenterX = this.nextSelectionStartX + this.selectionSquareSize / 2;
                             int popOutCenterY = this.nextSelectionStartY + this.selectionSquareSize / 2;
-                            drawClickField(ClickField.availableClickFields[ClickField.selectedClickField + 2], popOutCenterX - popOutRad, popOutCenterY - popOutRad, popOutCenterX + popOutRad, popOutCenterY + popOutRad, canvas, this.p);
+                            this.thumbnails.draw(ClickField.availableClickFields[ClickField.selectedClickField + 2], popOutCenterX - popOutRad, popOutCenterY - popOutRad, popOutCenterX + popOutRad, popOutCenterY + popOutRad, canvas);
                         }
                     }
                 }
@@ -830,25 +1276,25 @@ public class PlayActivity extends AppCompatActivity implements Runnable
                         size *= this.choiceState * this.choiceState;
                         int centerX = this.nextSelectionStartX + this.selectionSquareSize / 2;
                         int centerY = this.nextSelectionStartY + this.selectionSquareSize / 2;
-                        drawClickField(ClickField.availableClickFields[ClickField.selectedClickField + 1], centerX - size / 2, centerY - size / 2, centerX + size / 2, centerY + size / 2, canvas, this.p);
+                        this.thumbnails.draw(ClickField.availableClickFields[ClickField.selectedClickField + 1], centerX - size / 2, centerY - size / 2, centerX + size / 2, centerY + size / 2, canvas);
                     }
                     int movInCenterX = this.nextSelectionStartX + this.selectionSquareSize / 2 - (int) ((this.nextSelectionStartX - this.curSelectionStartX) * this.choiceState * this.choiceState);
                     int movInCenterY = this.nextSelectionStartY + this.selectionSquareSize / 2 - (int) ((this.nextSelectionStartY - this.curSelectionStartY) * this.choiceState * this.choiceState);
                     int movInSize = this.selectionSquareSize - 4 * border + (int) (2 * border * this.choiceState * this.choiceState);
-                    drawClickField(ClickField.availableClickFields[ClickField.selectedClickField], movInCenterX - movInSize / 2, movInCenterY - movInSize / 2, movInCenterX + movInSize / 2, movInCenterY + movInSize / 2, canvas, this.p);
+                    this.thumbnails.draw(ClickField.availableClickFields[ClickField.selectedClickField], movInCenterX - movInSize / 2, movInCenterY - movInSize / 2, movInCenterX + movInSize / 2, movInCenterY + movInSize / 2, canvas);
                     if (ClickField.selectedClickField != 0)
                     {
                         int movOutCenterX = movInCenterX - (this.curSelectionStartX - this.prevSelectionStartX);
                         int movOutCenterY = movInCenterY - (this.curSelectionStartY - this.prevSelectionStartY);
                         int movOutSize = this.selectionSquareSize - 2 * border - (int) (2 * border * this.choiceState * this.choiceState);
-                        drawClickField(ClickField.availableClickFields[ClickField.selectedClickField - 1], movOutCenterX - movOutSize / 2, movOutCenterY - movOutSize / 2, movOutCenterX + movOutSize / 2, movOutCenterY + movOutSize / 2, canvas, this.p);
+                        this.thumbnails.draw(ClickField.availableClickFields[ClickField.selectedClickField - 1], movOutCenterX - movOutSize / 2, movOutCenterY - movOutSize / 2, movOutCenterX + movOutSize / 2, movOutCenterY + movOutSize / 2, canvas);
                         if (ClickField.selectedClickField != 1)
                         {
                             int popOutSize = (int) ((this.selectionSquareSize - 4 * border) * (1 - this.choiceState * this.choiceState));
                             int popOutRad = popOutSize / 2;
                             int popOutCenterX = this.prevSelectionStartX + this.selectionSquareSize / 2;
                             int popOutCenterY = this.prevSelectionStartY + this.selectionSquareSize / 2;
-                            drawClickField(ClickField.availableClickFields[ClickField.selectedClickField - 2], popOutCenterX - popOutRad, popOutCenterY - popOutRad, popOutCenterX + popOutRad, popOutCenterY + popOutRad, canvas, this.p);
+                            this.thumbnails.draw(ClickField.availableClickFields[ClickField.selectedClickField - 2], popOutCenterX - popOutRad, popOutCenterY - popOutRad, popOutCenterX + popOutRad, popOutCenterY + popOutRad, canvas);
                         }
                     }
                 }
@@ -856,17 +1302,17 @@ public class PlayActivity extends AppCompatActivity implements Runnable
             else
             {
                 // draw the ClickField static (not animated)
-                drawClickField(ClickField.availableClickFields[ClickField.selectedClickField], this.curSelectionStartX + border, this.curSelectionStartY + border,
-                        this.curSelectionStartX + this.selectionSquareSize - border, this.curSelectionStartY + this.selectionSquareSize - border, canvas, this.p);
+                this.thumbnails.draw(ClickField.availableClickFields[ClickField.selectedClickField], this.curSelectionStartX + border, this.curSelectionStartY + border,
+                        this.curSelectionStartX + this.selectionSquareSize - border, this.curSelectionStartY + this.selectionSquareSize - border, canvas);
                 if (ClickField.selectedClickField != 0)
                 {
-                    drawClickField(ClickField.availableClickFields[ClickField.selectedClickField - 1], this.prevSelectionStartX + 2 * border, this.prevSelectionStartY + 2 * border,
-                            this.prevSelectionStartX + this.selectionSquareSize - 2 * border, this.prevSelectionStartY + this.selectionSquareSize - 2 * border, canvas, this.p);
+                    this.thumbnails.draw(ClickField.availableClickFields[ClickField.selectedClickField - 1], this.prevSelectionStartX + 2 * border, this.prevSelectionStartY + 2 * border,
+                            this.prevSelectionStartX + this.selectionSquareSize - 2 * border, this.prevSelectionStartY + this.selectionSquareSize - 2 * border, canvas);
                 }
                 if (ClickField.selectedClickField != ClickField.availableClickFields.length - 1)
                 {
-                    drawClickField(ClickField.availableClickFields[ClickField.selectedClickField + 1], this.nextSelectionStartX + 2 * border, this.nextSelectionStartY + 2 * border,
-                            this.nextSelectionStartX + this.selectionSquareSize - 2 * border, this.nextSelectionStartY + this.selectionSquareSize - 2 * border, canvas, this.p);
+                    this.thumbnails.draw(ClickField.availableClickFields[ClickField.selectedClickField + 1], this.nextSelectionStartX + 2 * border, this.nextSelectionStartY + 2 * border,
+                            this.nextSelectionStartX + this.selectionSquareSize - 2 * border, this.nextSelectionStartY + this.selectionSquareSize - 2 * border, canvas);
                 }
             }
         }
@@ -878,6 +1324,7 @@ public class PlayActivity extends AppCompatActivity implements Runnable
 
             if (this.attachedActivity.state == PlayState.PLAYING)
             {
+                this.scaleDetector.onTouchEvent(event);
                 this.gestureDetector.onTouchEvent(event);
             }
             return true;
@@ -895,26 +1342,48 @@ public class PlayActivity extends AppCompatActivity implements Runnable
                 this.attachedView = attachedView;
             }
 
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY)
+            {
+                // the grid can only be moved when zoomed and not while it is being zoomed
+                if (this.attachedView.zoom == 1 || this.attachedView.scaleDetector.isInProgress())
+                {
+                    return false;
+                }
+                this.attachedView.panBy(distanceX, distanceY);
+                return true;
+            }
+
             @Override
             public boolean onSingleTapUp(MotionEvent event)
             {
                 float tapX = event.getX();
                 float tapY = event.getY();
-                float minX = this.attachedView.gridCornerX;
-                float maxX = minX + this.attachedView.tilesInWidth * this.attachedView.tileSize;
-                float minY = this.attachedView.gridCornerY;
-                float maxY = minY + this.attachedView.tilesInHeight * this.attachedView.tileSize;
-                if (tapX >= minX && tapY >= minY && tapX < maxX && tapY < maxY)
+
+                // the tapped tile is found through the zoom, only the part of the grid in the grid space can be tapped
+                float drawnTileSize = this.attachedView.tileSize * this.attachedView.zoom;
+                int cornerX = (int) this.attachedView.viewCornerX;
+                int cornerY = (int) this.attachedView.viewCornerY;
+                float minX = cornerX;
+                float maxX = minX + this.attachedView.tilesInWidth * drawnTileSize;
+                float minY = cornerY;
+                float maxY = minY + this.attachedView.tilesInHeight * drawnTileSize;
+                if (tapX >= minX && tapY >= minY && tapX < maxX && tapY < maxY && this.attachedView.gridSpaceBounds.contains((int) tapX, (int) tapY))
                 {
-                    int x = (int) Math.floor((tapX - this.attachedView.gridCornerX) / this.attachedView.tileSize);
-                    int y = (int) Math.floor((tapY - this.attachedView.gridCornerY) / this.attachedView.tileSize);
+                    int x = (int) Math.floor((tapX - cornerX) / drawnTileSize);
+                    int y = (int) Math.floor((tapY - cornerY) / drawnTileSize);
                     if (this.attachedView.attachedActivity.gameDesk.doAttempt(ClickField.getSelectedClickField(), x, y))
                     {
+                        this.attachedView.onMove(ClickField.getSelectedClickField(), x, y);
+                        PlayActivity activity = this.attachedView.attachedActivity;
+                        int time = activity.getTimeTaken();
+                        activity.history.record(activity.gameDesk, x, y, ClickField.selectedClickField, time);
+                        IO.saveRunMove(activity.getApplicationContext(), x, y, ClickField.selectedClickField, time);
                         if (this.attachedView.attachedActivity.gameDesk.isCleared())
                         {
                             this.attachedView.attachedActivity.finishLevel();
                         }
-                        this.attachedView.invalidate();
+                        this.attachedView.frameScheduler.requestFrame();
                     }
                 }
                 // click on the prev ClickField
@@ -927,6 +1396,7 @@ public class PlayActivity extends AppCompatActivity implements Runnable
                         this.attachedView.animatingFieldChoice = true;
                         this.attachedView.choiceState = 0;
                         this.attachedView.choiceFromPrev = true;
+                        this.attachedView.frameScheduler.requestFrame();
                     }
                 }
                 // click of the next ClickField
@@ -939,15 +1409,36 @@ public class PlayActivity extends AppCompatActivity implements Runnable
                         this.attachedView.animatingFieldChoice = true;
                         this.attachedView.choiceState = 0;
                         this.attachedView.choiceFromPrev = false;
+                        this.attachedView.frameScheduler.requestFrame();
                     }
                 }
                 return true;
             }
         }
+
+        private class ScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener
+        {
+
+            final GameView attachedView;
+
+            public ScaleListener(GameView attachedView)
+            {
+                super();
+                this.attachedView = attachedView;
+            }
+
+            @Override
+            public boolean onScale(ScaleGestureDetector detector)
+            {
+                this.attachedView.zoomBy(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        }
     }
 
     /**
      * Draws a ClickField as a maximized rectangle in the specified rectangle.
+     * The selection dialog draws the fields through the ClickFieldThumbnails, which render them with this method only once per size.
      *
      * @param clickField the ClickField to draw
      * @param left       left of the rectangle
@@ -957,7 +1448,7 @@ public class PlayActivity extends AppCompatActivity implements Runnable
      * @param canvas     the canvas to draw on
      * @param p          the paint to draw with
      */
-    private static void drawClickField(ClickField clickField, int left, int top, int right, int bottom, Canvas canvas, Paint p)
+    static void drawClickField(ClickField clickField, int left, int top, int right, int bottom, Canvas canvas, Paint p)
     {
         p.setColor(Color.RED);
 
@@ -1005,8 +1496,7 @@ public class PlayActivity extends AppCompatActivity implements Runnable
                     int rectStartY = (int) (originY + fieldSize * j);
                     if (isChangedOnClick)
                     {
-                        Rect rect = new Rect(rectStartX + border, rectStartY + border, rectStartX + (int) fieldSize - border, rectStartY + (int) fieldSize - border);
-                        canvas.drawRect(rect, p);
+                        canvas.drawRect(rectStartX + border, rectStartY + border, rectStartX + (int) fieldSize - border, rectStartY + (int) fieldSize - border, p);
                     }
                     if (isClickPosition)
                     {
@@ -0,0 +1,384 @@
+package com.github.mimo31.thedecomposegame;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The export and the import of all the progress of the active profile - the maximum level, the best times and the replays -
+ * as a single GZIP compressed blob, used to move a player to another device.
+ * <p>
+ * The uncompressed blob is:
+ * <pre>
+ * int MAGIC, int VERSION
+ * int the length of the save, the save in the format of SaveFile (with its own version and checksums)
+ * the replays: int the index of the level, int the length of the replay, the replay in the format of its file, repeated
+ * int END
+ * </pre>
+ * The blob is written and read as a stream, so it can go to and from a file or an HTTP connection,
+ * and the replays are copied in chunks, so they never need to fit in memory at once.
+ * An imported replay is written to a staging file first and installed only when the whole blob is read and applied.
+ * <p>
+ * The transfers are done in two steps - the state is captured or applied on the UI thread
+ * and the slow streaming is done by the caller on a background thread.
+ */
+public class ProgressTransfer
+{
+    // the first int of an uncompressed blob, 'DECX'
+    private static final int MAGIC = 0x44454358;
+
+    // the version of the format written
+    private static final int VERSION = 1;
+
+    // the level index ending the replays
+    private static final int END = -1;
+
+    // the size of the chunks the replays are copied in
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    // the name of the file the progress is exported to and imported from
+    private static final String EXPORT_FILE_NAME = "Progress.export";
+
+    /**
+     * The progress captured for an export.
+     */
+    public static class Export
+    {
+        // the contents of the save file
+        private final byte[] save;
+
+        // the levels with a best time and their replay files
+        private final int[] levels;
+        private final File[] replayFiles;
+
+        private Export(byte[] save, int[] levels, File[] replayFiles)
+        {
+            this.save = save;
+            this.levels = levels;
+            this.replayFiles = replayFiles;
+        }
+
+        /**
+         * Writes the blob to a stream. Should be called on a background thread, as it first waits for the writer
+         * to write the replays handed over to it before the export was prepared. The stream is not closed.
+         *
+         * @param output the stream to write to
+         * @throws IOException if writing fails
+         */
+        public void writeTo(OutputStream output) throws IOException
+        {
+            // the replays written behind are in their files before they are copied
+            IO.awaitWriter();
+
+            GZIPOutputStream compressedOutput = new GZIPOutputStream(output, COPY_BUFFER_SIZE);
+            DataOutputStream dataOutput = new DataOutputStream(new BufferedOutputStream(compressedOutput, COPY_BUFFER_SIZE));
+
+            dataOutput.writeInt(MAGIC);
+            dataOutput.writeInt(VERSION);
+            dataOutput.writeInt(this.save.length);
+            dataOutput.write(this.save);
+
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            for (int i = 0; i < this.levels.length; i++)
+            {
+                File replayFile = this.replayFiles[i];
+                if (!replayFile.exists())
+                {
+                    continue;
+                }
+                FileInputStream inputStream = new FileInputStream(replayFile);
+                try
+                {
+                    // the length is taken from the opened file, so a replay rewritten in the meantime is still copied whole
+                    long length = inputStream.getChannel().size();
+                    dataOutput.writeInt(this.levels[i]);
+                    dataOutput.writeInt((int) length);
+                    copy(inputStream, dataOutput, length, buffer);
+                }
+                finally
+                {
+                    inputStream.close();
+                }
+            }
+            dataOutput.writeInt(END);
+
+            dataOutput.flush();
+            compressedOutput.finish();
+        }
+    }
+
+    /**
+     * The progress read from a blob, not applied yet.
+     */
+    public static class Import
+    {
+        // the imported save
+        private final SaveFile save;
+
+        // the levels with an imported replay and the staging files of the replays
+        private final int[] levels;
+        private final File[] replayFiles;
+
+        private Import(SaveFile save, int[] levels, File[] replayFiles)
+        {
+            this.save = save;
+            this.levels = levels;
+            this.replayFiles = replayFiles;
+        }
+
+        /**
+         * Deletes the staged replays. Should be called if the import is not applied.
+         */
+        public void discard()
+        {
+            for (File replayFile : this.replayFiles)
+            {
+                replayFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Captures the progress of the active profile for an export. Should be called on the UI thread, only the data in memory are captured,
+     * the returned Export is then written on a background thread.
+     *
+     * @param context application context
+     * @return the captured progress
+     * @throws IOException never, the save is serialized into memory
+     */
+    public static Export prepareExport(Context context) throws IOException
+    {
+        byte[] save = SaveFile.write(Level.maxLevel);
+        int[] levels = Level.getBestTimes().sortedKeys();
+        File[] replayFiles = new File[levels.length];
+        for (int i = 0; i < levels.length; i++)
+        {
+            replayFiles[i] = IO.getReplayFile(context, levels[i]);
+        }
+        return new Export(save, levels, replayFiles);
+    }
+
+    /**
+     * Reads a blob from a stream and stages its replays. Can be called on any thread, the stream is not closed.
+     * Nothing is changed until the returned Import is applied.
+     *
+     * @param context application context
+     * @param input   the stream to read from
+     * @return the read progress
+     * @throws IOException if reading fails or the blob is corrupted or of an unknown version
+     */
+    public static Import readFrom(Context context, InputStream input) throws IOException
+    {
+        DataInputStream dataInput = new DataInputStream(new BufferedInputStream(new GZIPInputStream(input, COPY_BUFFER_SIZE), COPY_BUFFER_SIZE));
+        if (dataInput.readInt() != MAGIC)
+        {
+            throw new IOException("Not a progress export");
+        }
+        int version = dataInput.readInt();
+        if (version != VERSION)
+        {
+            throw new IOException("Unknown progress export version " + version);
+        }
+
+        int saveLength = dataInput.readInt();
+        if (saveLength < 0 || saveLength > 1 << 24)
+        {
+            throw new IOException("Corrupted progress export");
+        }
+        byte[] saveBytes = new byte[saveLength];
+        dataInput.readFully(saveBytes);
+        SaveFile save = SaveFile.read(saveBytes);
+        if (save == null)
+        {
+            throw new IOException("Corrupted progress export");
+        }
+
+        File stagingDirectory = new File(context.getCacheDir(), "import");
+        stagingDirectory.mkdirs();
+        IntIntMap staged = new IntIntMap();
+        try
+        {
+            for (int level = dataInput.readInt(); level != END; level = dataInput.readInt())
+            {
+                int length = dataInput.readInt();
+                if (level < 0 || level >= Level.levels.length || length < 4 || staged.get(level) != 0)
+                {
+                    throw new IOException("Corrupted progress export");
+                }
+
+                // a replay is the number of moves followed by the moves, check the length matches before the moves are copied
+                int moveCount = dataInput.readInt();
+                if (moveCount < 0 || length != 4 + 16L * moveCount)
+                {
+                    throw new IOException("Corrupted progress export");
+                }
+                staged.put(level, 1);
+                DataOutputStream stagedOutput = new DataOutputStream(new FileOutputStream(getStagingFile(stagingDirectory, level)));
+                try
+                {
+                    stagedOutput.writeInt(moveCount);
+                    copyReplay(dataInput, stagedOutput, level, moveCount);
+                }
+                finally
+                {
+                    stagedOutput.close();
+                }
+            }
+
+            // the replays have no checksums of their own, reading to the end makes the GZIP stream check the checksum of the whole blob
+            if (dataInput.read() != -1)
+            {
+                throw new IOException("Corrupted progress export");
+            }
+        }
+        catch (IOException e)
+        {
+            for (int level : staged.sortedKeys())
+            {
+                getStagingFile(stagingDirectory, level).delete();
+            }
+            throw e;
+        }
+
+        int[] levels = staged.sortedKeys();
+        File[] replayFiles = new File[levels.length];
+        for (int i = 0; i < levels.length; i++)
+        {
+            replayFiles[i] = getStagingFile(stagingDirectory, levels[i]);
+        }
+        return new Import(save, levels, replayFiles);
+    }
+
+    /**
+     * Merges imported progress into the progress of the active profile and saves it. Should be called on the UI thread.
+     * A level gets the imported best time and replay only if the imported time is better, the maximum level is the higher one,
+     * so the progress is never lost and applying the same import again changes nothing.
+     *
+     * @param context  application context
+     * @param imported the imported progress
+     */
+    public static void apply(Context context, Import imported)
+    {
+        IntIntMap importedTimes = new IntIntMap();
+        imported.save.decodeBestTimes(importedTimes);
+
+        for (int level : importedTimes.sortedKeys())
+        {
+            int time = importedTimes.get(level);
+            int bestTime = Level.getBestTime(level);
+            if (bestTime != 0 && time >= bestTime)
+            {
+                // the replay of a time which is not better is not installed
+                importedTimes.put(level, 0);
+                continue;
+            }
+            Level.setBestTime(level, time);
+        }
+        Level.maxLevel = Math.max(Level.maxLevel, imported.save.maxLevel);
+
+        for (int i = 0; i < imported.levels.length; i++)
+        {
+            if (importedTimes.get(imported.levels[i]) != 0)
+            {
+                IO.installReplay(context, imported.levels[i], imported.replayFiles[i]);
+
+                // the level is done, so only the levels with a new time and no imported replay are left in the map
+                importedTimes.put(imported.levels[i], 0);
+            }
+            else
+            {
+                imported.replayFiles[i].delete();
+            }
+        }
+
+        // the local replay of a level whose time is replaced would not match the time, so it is deleted
+        for (int level : importedTimes.sortedKeys())
+        {
+            if (importedTimes.get(level) != 0)
+            {
+                IO.deleteReplay(context, level);
+            }
+        }
+        IO.compact(context);
+    }
+
+    /**
+     * @param context application context
+     * @return the file the progress is exported to and imported from - in the external files directory if there is one,
+     * so it can be copied to another device, otherwise in the files directory
+     */
+    public static File getExportFile(Context context)
+    {
+        File directory = context.getExternalFilesDir(null);
+        return new File(directory != null ? directory : context.getFilesDir(), EXPORT_FILE_NAME);
+    }
+
+    private static File getStagingFile(File stagingDirectory, int level)
+    {
+        return new File(stagingDirectory, level + ".dat");
+    }
+
+    /**
+     * Copies the moves of an imported replay to its staging file, checking that the replay is a valid run of the level -
+     * every move applies an allowed ClickField within the board, the times do not decrease and the run clears the board.
+     *
+     * @param input     the stream of the blob, at the first move
+     * @param output    the stream of the staging file
+     * @param level     the index of the level
+     * @param moveCount the number of moves of the replay
+     * @throws IOException if reading or writing fails or the replay is not valid
+     */
+    private static void copyReplay(DataInputStream input, DataOutputStream output, int level, int moveCount) throws IOException
+    {
+        ClickField[] fields = Level.levels[level].allowedClickFields;
+        GameDesk desk = Level.levels[level].getNewDesk();
+        int lastTime = 0;
+        for (int i = 0; i < moveCount; i++)
+        {
+            int x = input.readInt();
+            int y = input.readInt();
+            int fieldIndex = input.readInt();
+            int time = input.readInt();
+            if (fieldIndex < 0 || fieldIndex >= fields.length || time < lastTime || !desk.applyField(fields[fieldIndex], x, y))
+            {
+                throw new IOException("Invalid replay in progress export");
+            }
+            lastTime = time;
+            output.writeInt(x);
+            output.writeInt(y);
+            output.writeInt(fieldIndex);
+            output.writeInt(time);
+        }
+        if (!desk.isCleared())
+        {
+            throw new IOException("Invalid replay in progress export");
+        }
+    }
+
+    // copies a number of bytes from a stream to another one
+    private static void copy(InputStream input, OutputStream output, long length, byte[] buffer) throws IOException
+    {
+        while (length > 0)
+        {
+            int read = input.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (read == -1)
+            {
+                throw new EOFException();
+            }
+            output.write(buffer, 0, read);
+            length -= read;
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package com.github.mimo31.thedecomposegame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * The contents of the save file - the maximum level and the best times of the completed levels.
+ * <p>
+ * The file consists of a header and a section of the best times, each followed by the CRC32 of its bytes:
+ * <pre>
+ * header:     int MAGIC, int VERSION, int the number of levels of the game, int maxLevel, int CRC
+ * best times: int the number of completed levels, int the number of bytes of the entries, the entries, int CRC of the entries
+ * </pre>
+ * The entries are sorted by the level and each is the difference from the level of the previous entry (from -1 for the first one)
+ * and the time, both as unsigned varints (7 bits per byte, the lowest first, the highest bit set on all but the last byte),
+ * so the size of the file is proportional to the number of the completed levels, not to the number of all levels.
+ * <p>
+ * The file is read memory-mapped - only the checksums are computed when it is read and the best times are decoded
+ * from the mapped file when they are first needed. Files of the older versions with the best times of all the levels
+ * up to maxLevel as ints are still read, the first version (just maxLevel and the best times) without the checksums.
+ */
+public class SaveFile
+{
+    // the first int of a save file, 'DECP'
+    private static final int MAGIC = 0x44454350;
+
+    // the version of the format written
+    private static final int VERSION = 3;
+
+    // the version with the best times of all the levels up to maxLevel as ints
+    private static final int DENSE_VERSION = 2;
+
+    // the version 1 files have no header
+    private static final int FIRST_VERSION = 1;
+
+    // the size of the header including its CRC
+    private static final int HEADER_SIZE = 5 * 4;
+
+    // the size of the chunks copied out of the mapped file to compute the checksums
+    private static final int CRC_CHUNK_SIZE = 8192;
+
+    /**
+     * The maximum level saved in the file.
+     */
+    public final int maxLevel;
+
+    // the version of the format of the file
+    private final int version;
+
+    // the encoded best times, backed by the mapped file
+    private final ByteBuffer bestTimes;
+
+    // the number of the encoded best times
+    private final int count;
+
+    private SaveFile(int maxLevel, int version, ByteBuffer bestTimes, int count)
+    {
+        this.maxLevel = maxLevel;
+        this.version = version;
+        this.bestTimes = bestTimes;
+        this.count = count;
+    }
+
+    /**
+     * Serializes the save file with the current best times of the levels.
+     *
+     * @param maxLevel the maximum level
+     * @return the contents of the file
+     * @throws IOException never, the contents are written into memory
+     */
+    public static byte[] write(int maxLevel) throws IOException
+    {
+        IntIntMap bestTimes = Level.getBestTimes();
+        int[] levels = bestTimes.sortedKeys();
+        ByteArrayOutputStream entries = new ByteArrayOutputStream(4 * levels.length);
+        int previousLevel = -1;
+        for (int level : levels)
+        {
+            writeVarint(entries, level - previousLevel);
+            writeVarint(entries, bestTimes.get(level));
+            previousLevel = level;
+        }
+        byte[] entryBytes = entries.toByteArray();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + entryBytes.length + 12);
+        DataOutputStream dataOutput = new DataOutputStream(bytes);
+        CRC32 crc = new CRC32();
+
+        dataOutput.writeInt(MAGIC);
+        dataOutput.writeInt(VERSION);
+        dataOutput.writeInt(Level.levels.length);
+        dataOutput.writeInt(maxLevel);
+        crc.update(bytes.toByteArray(), 0, 16);
+        dataOutput.writeInt((int) crc.getValue());
+
+        dataOutput.writeInt(levels.length);
+        dataOutput.writeInt(entryBytes.length);
+        dataOutput.write(entryBytes);
+        crc.reset();
+        crc.update(entryBytes);
+        dataOutput.writeInt((int) crc.getValue());
+
+        dataOutput.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Maps and validates a save file.
+     *
+     * @param file the save file
+     * @return the contents of the file or null if the file does not exist or is corrupted
+     */
+    public static SaveFile read(File file)
+    {
+        if (!file.exists())
+        {
+            return null;
+        }
+        try
+        {
+            FileInputStream inputStream = new FileInputStream(file);
+            MappedByteBuffer buffer;
+            try
+            {
+                // the mapping stays valid after the channel is closed
+                FileChannel channel = inputStream.getChannel();
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            finally
+            {
+                inputStream.close();
+            }
+            return read(buffer);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Validates the contents of a save file already in memory, e.g. read from an export of the progress.
+     *
+     * @param bytes the contents of the save file
+     * @return the contents of the file or null if the contents are corrupted
+     */
+    public static SaveFile read(byte[] bytes)
+    {
+        return read(ByteBuffer.wrap(bytes));
+    }
+
+    // reads a file of any version
+    private static SaveFile read(ByteBuffer buffer)
+    {
+        if (buffer.capacity() >= 4 && buffer.getInt(0) == MAGIC)
+        {
+            return readVersioned(buffer);
+        }
+        return readFirstVersion(buffer);
+    }
+
+    /**
+     * Decodes the best times of the file into a map, ignoring the levels the game does not have (anymore).
+     *
+     * @param bestTimes the map to put the best times in by the index of the level
+     */
+    public void decodeBestTimes(IntIntMap bestTimes)
+    {
+        ByteBuffer buffer = this.bestTimes.duplicate();
+        if (this.version == VERSION)
+        {
+            int level = -1;
+            for (int i = 0; i < this.count; i++)
+            {
+                level += readVarint(buffer);
+                int time = readVarint(buffer);
+                if (level < Level.levels.length)
+                {
+                    bestTimes.put(level, time);
+                }
+            }
+            return;
+        }
+        for (int level = 0; level < this.count && level < Level.levels.length; level++)
+        {
+            int time = buffer.getInt();
+            if (time != 0)
+            {
+                bestTimes.put(level, time);
+            }
+        }
+    }
+
+    /**
+     * Decodes the best time of a single level without decoding the other ones, stops at the entry of the level.
+     *
+     * @param level the index of the level
+     * @return the best time of the level or 0 if the level has not been completed
+     */
+    public int getBestTime(int level)
+    {
+        if (level < 0 || level >= Level.levels.length)
+        {
+            return 0;
+        }
+        if (this.version == VERSION)
+        {
+            ByteBuffer buffer = this.bestTimes.duplicate();
+            int entryLevel = -1;
+            for (int i = 0; i < this.count; i++)
+            {
+                entryLevel += readVarint(buffer);
+                int time = readVarint(buffer);
+                if (entryLevel >= level)
+                {
+                    return entryLevel == level ? time : 0;
+                }
+            }
+            return 0;
+        }
+        return level < this.count ? this.bestTimes.getInt(4 * level) : 0;
+    }
+
+    // reads a file with the header and the checksums
+    private static SaveFile readVersioned(ByteBuffer buffer)
+    {
+        if (buffer.capacity() < HEADER_SIZE + 4 || buffer.getInt(16) != computeCrc(buffer, 0, 16))
+        {
+            return null;
+        }
+        int version = buffer.getInt(4);
+        int levelCount = buffer.getInt(8);
+        int maxLevel = buffer.getInt(12);
+        int count = buffer.getInt(HEADER_SIZE);
+        if (maxLevel < 0 || maxLevel >= levelCount || count < 0 || count > levelCount)
+        {
+            return null;
+        }
+        int entriesStart;
+        int entriesLength;
+        if (version == VERSION)
+        {
+            if (buffer.capacity() < HEADER_SIZE + 8)
+            {
+                return null;
+            }
+            entriesStart = HEADER_SIZE + 8;
+            entriesLength = buffer.getInt(HEADER_SIZE + 4);
+        }
+        else if (version == DENSE_VERSION)
+        {
+            entriesStart = HEADER_SIZE + 4;
+            entriesLength = 4 * count;
+        }
+        else
+        {
+            return null;
+        }
+        if (entriesLength < 0 || buffer.capacity() != entriesStart + entriesLength + 4
+                || buffer.getInt(entriesStart + entriesLength) != computeCrc(buffer, entriesStart, entriesLength))
+        {
+            return null;
+        }
+
+        // the count is not covered by the CRC, so it has to match the entries, two varints each
+        if (version == VERSION && countVarints(buffer, entriesStart, entriesLength) != 2L * count)
+        {
+            return null;
+        }
+        return create(buffer, version, entriesStart, entriesLength, count, maxLevel);
+    }
+
+    // reads a file of the first version - maxLevel followed by the best times of the levels up to maxLevel
+    private static SaveFile readFirstVersion(ByteBuffer buffer)
+    {
+        if (buffer.capacity() < 4)
+        {
+            return null;
+        }
+        int maxLevel = buffer.getInt(0);
+        if (maxLevel < 0 || maxLevel >= Level.levels.length || buffer.capacity() != 4 * (maxLevel + 2))
+        {
+            return null;
+        }
+        return create(buffer, FIRST_VERSION, 4, 4 * (maxLevel + 1), maxLevel + 1, maxLevel);
+    }
+
+    // creates the contents from a valid file, clamping the maxLevel to the levels of the game
+    private static SaveFile create(ByteBuffer buffer, int version, int entriesStart, int entriesLength, int count, int maxLevel)
+    {
+        buffer.position(entriesStart);
+        buffer.limit(entriesStart + entriesLength);
+        return new SaveFile(Math.min(maxLevel, Level.levels.length - 1), version, buffer.slice(), count);
+    }
+
+    // computes the CRC32 of a part of the mapped file
+    private static int computeCrc(ByteBuffer buffer, int start, int length)
+    {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[Math.max(1, Math.min(length, CRC_CHUNK_SIZE))];
+        ByteBuffer part = buffer.duplicate();
+        part.position(start);
+        for (int done = 0; done < length; )
+        {
+            int chunkLength = Math.min(chunk.length, length - done);
+            part.get(chunk, 0, chunkLength);
+            crc.update(chunk, 0, chunkLength);
+            done += chunkLength;
+        }
+        return (int) crc.getValue();
+    }
+
+    // counts the complete varints in a part of the mapped file - the bytes with the highest bit clear
+    private static int countVarints(ByteBuffer buffer, int start, int length)
+    {
+        int count = 0;
+        for (int i = start, end = start + length; i < end; i++)
+        {
+            if ((buffer.get(i) & 0x80) == 0)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream output, int value)
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    private static int readVarint(ByteBuffer buffer)
+    {
+        int value = 0;
+        for (int shift = 0; ; shift += 7)
+        {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+    }
+}
@@ -1,29 +1,41 @@
 package com.github.mimo31.thedecomposegame;
 
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.Rect;
-import android.os.Handler;
 import android.support.v4.view.GestureDetectorCompat;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 
 /**
  * The first Activity shown to the user.
- * Has buttons to go to the ChooseLevelActivity or the HelpActivity.
+ * Has buttons to go to the ChooseLevelActivity or the HelpActivity and to switch the player profile.
+ * The profile dialog also exports and imports the progress of the profile through a file, used to move it to another device.
  */
 public class StartActivity extends AppCompatActivity
 {
     // the view where everything is drawn
     private WelcomeView drawView;
 
+    // the animation of the tiles of the welcome grid
+    private static final FlipAnimation tileFlip = new FlipAnimation(0.5f);
+
     @Override
     protected void onCreate(Bundle savedInstanceState)
     {
@@ -31,6 +43,18 @@ public class StartActivity extends AppCompatActivity
         this.drawView = new WelcomeView(this);
         ViewGroup.LayoutParams layoutParams = new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT);
         this.addContentView(this.drawView, layoutParams);
+
+        // if the app was killed during a run of a level, continue it right away
+        if (savedInstanceState == null)
+        {
+            int runLevel = IO.getRunLevel(this.getApplicationContext());
+            if (runLevel != -1)
+            {
+                Intent intent = new Intent(this, PlayActivity.class);
+                intent.putExtra("level", runLevel);
+                this.startActivity(intent);
+            }
+        }
     }
 
     /**
@@ -50,14 +74,186 @@ public class StartActivity extends AppCompatActivity
         this.startActivity(new Intent(this, HelpActivity.class));
     }
 
+    /**
+     * Shows a dialog to select the player profile, to add a new one or to export or import the progress of the selected one.
+     */
+    public void showProfiles()
+    {
+        String[] names = new String[IO.getProfileCount()];
+        for (int i = 0; i < names.length; i++)
+        {
+            names[i] = IO.getProfileName(i);
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Player")
+                .setSingleChoiceItems(names, IO.getActiveProfile(), new DialogInterface.OnClickListener()
+                {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which)
+                    {
+                        selectProfile(which);
+                        dialog.dismiss();
+                    }
+                })
+                .setNeutralButton("New player", new DialogInterface.OnClickListener()
+                {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which)
+                    {
+                        selectProfile(IO.addProfile(getApplicationContext()));
+                    }
+                })
+                .setPositiveButton("Export", new DialogInterface.OnClickListener()
+                {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which)
+                    {
+                        exportProgress();
+                    }
+                })
+                .setNegativeButton("Import", new DialogInterface.OnClickListener()
+                {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which)
+                    {
+                        importProgress();
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Exports the progress of the active profile to the export file. The progress is captured right away
+     * and written on a background thread through a temporary file, so a failed export never leaves a partial file behind.
+     */
+    private void exportProgress()
+    {
+        final ProgressTransfer.Export export;
+        try
+        {
+            export = ProgressTransfer.prepareExport(this.getApplicationContext());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            return;
+        }
+        final File exportFile = ProgressTransfer.getExportFile(this.getApplicationContext());
+        new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                boolean exported = false;
+                File tempFile = new File(exportFile.getPath() + ".tmp");
+                try
+                {
+                    FileOutputStream outputStream = new FileOutputStream(tempFile);
+                    try
+                    {
+                        export.writeTo(outputStream);
+                    }
+                    finally
+                    {
+                        outputStream.close();
+                    }
+                    exported = tempFile.renameTo(exportFile);
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+                if (!exported)
+                {
+                    tempFile.delete();
+                }
+                showTransferResult(exported ? "Progress exported to " + exportFile : "The export failed");
+            }
+        }, "ProgressExport").start();
+    }
+
+    /**
+     * Imports the progress from the export file into the active profile. The file is read on a background thread
+     * and the read progress is applied back on the UI thread.
+     */
+    private void importProgress()
+    {
+        final Context context = this.getApplicationContext();
+        final File exportFile = ProgressTransfer.getExportFile(context);
+        new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final ProgressTransfer.Import imported = readImport(context, exportFile);
+                if (imported == null)
+                {
+                    showTransferResult("No progress to import in " + exportFile);
+                    return;
+                }
+                runOnUiThread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        ProgressTransfer.apply(context, imported);
+                        showTransferResult("Progress imported");
+                    }
+                });
+            }
+        }, "ProgressImport").start();
+    }
+
+    // reads the progress to import from a file, returns null if there is none or it is corrupted
+    private static ProgressTransfer.Import readImport(Context context, File file)
+    {
+        try
+        {
+            FileInputStream inputStream = new FileInputStream(file);
+            try
+            {
+                return ProgressTransfer.readFrom(context, inputStream);
+            }
+            finally
+            {
+                inputStream.close();
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // tells the user how a transfer ended, can be called on any thread
+    private void showTransferResult(final String message)
+    {
+        this.runOnUiThread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Toast.makeText(getApplicationContext(), message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    // switches to a player profile and shows it on the profile button
+    private void selectProfile(int profile)
+    {
+        IO.selectProfile(this.getApplicationContext(), profile);
+        this.drawView.updateProfileLabel();
+        this.drawView.invalidate();
+    }
+
     @Override
     protected void onStart()
     {
         super.onStart();
 
         // start the updating in the view
-        this.drawView.keepUpdating = true;
-        this.drawView.updateHandler.postDelayed(this.drawView, 17);
+        this.drawView.frameScheduler.start();
     }
 
     @Override
@@ -66,17 +262,15 @@ public class StartActivity extends AppCompatActivity
         super.onStop();
 
         // stop the updating in the view
-        this.drawView.keepUpdating = false;
+        this.drawView.frameScheduler.stop();
     }
 
-    private static class WelcomeView extends View implements Runnable
+    private static class WelcomeView extends View implements FrameScheduler.Callback
     {
         private final StartActivity activity;
         private final GestureDetectorCompat gestureDetector;
 
-        private final Handler updateHandler = new Handler();
-
-        private boolean keepUpdating = true;
+        private final FrameScheduler frameScheduler = new FrameScheduler(this, this);
 
         // the blue-red state of the grid on the background
         // the grid has three rows and a variable number of columns
@@ -88,18 +282,23 @@ public class StartActivity extends AppCompatActivity
         private int animatingX;
         private int animatingY;
 
-        // the number of update-cycles between two changes of a tile state
-        // the default value for the toNextAnimation variable
-        private static final int BETWEEN_ANIMATIONS_LENGTH = 200;
+        // the number of milliseconds between the end of an animation of a tile state change and the start of the next one
+        private static final int BETWEEN_ANIMATIONS_LENGTH = 3400;
+
+        // the number of milliseconds an animation of a tile state change should last
+        private static final int ANIMATION_LENGTH = 500;
+
+        // the number of milliseconds the color of the text on the play button stays the same
+        private static final int PLAY_COLOR_LENGTH = 2000;
 
-        // the number of update-cycles an animation of a tile state change should last
-        private static final int ANIMATION_LENGTH = 30;
+        // the time (from System.currentTimeMillis()) when the next change of a tile state should start
+        // 0 if the time has not been set yet
+        private long nextAnimationStart = 0;
 
-        // the number of update-cycles remaining to the next change of a tile state
-        // this value should be set to its default (BETWEEN_ANIMATIONS_LENGTH) when some animation is being performed
-        private int toNextAnimation = BETWEEN_ANIMATIONS_LENGTH;
+        // the time (from System.currentTimeMillis()) when the current animation of a tile state change ends
+        private long animationEnd = 0;
 
-        // the number of update-cycles remaining to the end of a tile state change animation
+        // the number of milliseconds remaining to the end of a tile state change animation
         // when no animation is being performed, this value is 0
         private int toAnimationEnd = 0;
 
@@ -120,6 +319,9 @@ public class StartActivity extends AppCompatActivity
         // the x index in the gridState array of the tile that is instead of blue or red working as a button navigating to the HelpActivity
         private int helpTileX;
 
+        // the x index in the gridState array of the tile that is instead of blue or red working as a button switching the player profile
+        private int profileTileX;
+
         // the size of the border around a tile
         private int borderSize;
 
@@ -133,12 +335,17 @@ public class StartActivity extends AppCompatActivity
         private StringDraw.StringDrawData playDrawData;
         private StringDraw.StringDrawData helpDrawData;
 
+        // the text on the profile button - the number of the active profile - and its StringDrawData
+        private String profileLabel;
+        private StringDraw.StringDrawData profileDrawData;
+
         // indicates whether the draw variables (sizes, positions,...) have already been initialized - whether the initializeComponentSizes method has been called
         private boolean initialized = false;
 
         // rectangles of the play and help buttons
         private Rect playButton;
         private Rect helpButton;
+        private Rect profileButton;
 
         private WelcomeView(StartActivity activity)
         {
@@ -162,6 +369,7 @@ public class StartActivity extends AppCompatActivity
             this.gridState = new boolean[3 * this.gridWidth];
 
             this.helpTileX = this.gridWidth / 2;
+            this.profileTileX = this.helpTileX - 1;
 
             this.borderSize = this.tileSize / 16;
 
@@ -176,9 +384,29 @@ public class StartActivity extends AppCompatActivity
             this.playDrawData = StringDraw.getMaxStringData("PLAY!", borderedPlayButton, StringDraw.TextAlign.MIDDLE, this.p);
             this.helpDrawData = StringDraw.getMaxStringData("help?", borderedHelpButton, StringDraw.TextAlign.MIDDLE, this.p);
 
+            this.profileButton = new Rect(this.width / 2 - this.tileSize + this.borderSize, this.tileSize * 3 + this.borderSize, this.width / 2 - this.borderSize, this.tileSize * 4 - this.borderSize);
+            this.updateProfileLabel();
+
+            // start the animations now that the sizes are known
+            this.frameScheduler.requestFrame();
+
             this.initialized = true;
         }
 
+        /**
+         * Updates the text on the profile button to the active profile.
+         */
+        private void updateProfileLabel()
+        {
+            if (this.profileButton == null)
+            {
+                return;
+            }
+            this.profileLabel = "P" + (IO.getActiveProfile() + 1);
+            Rect borderedProfileButton = StringDraw.applyBorders(this.profileButton, this.tileSize / 6);
+            this.profileDrawData = StringDraw.getMaxStringData(this.profileLabel, borderedProfileButton, StringDraw.TextAlign.MIDDLE, this.p);
+        }
+
         @Override
         protected void onDraw(Canvas canvas)
         {
@@ -197,7 +425,7 @@ public class StartActivity extends AppCompatActivity
             {
                 this.drawTile(nextX, 0, this.gridState[i + 0], animatingX == i && animatingY == 0 ? this.toAnimationEnd : 0, canvas);
                 this.drawTile(nextX, this.tileSize * 2, this.gridState[i + 1 * this.gridWidth], animatingX == i && animatingY == 1 ? this.toAnimationEnd : 0, canvas);
-                if (i != this.helpTileX)
+                if (i != this.helpTileX && i != this.profileTileX)
                 {
                     this.drawTile(nextX, this.tileSize * 3, this.gridState[i + 2 * this.gridWidth], animatingX == i && animatingY == 2 ? this.toAnimationEnd : 0, canvas);
                 }
@@ -207,7 +435,7 @@ public class StartActivity extends AppCompatActivity
             // draw the play button
             this.p.setColor(Color.BLACK);
             canvas.drawRect(this.playButton, this.p);
-            this.p.setColor(System.currentTimeMillis() % 6000 < 2000 ? PlayActivity.badColor : PlayActivity.goodColor);
+            this.p.setColor(System.currentTimeMillis() % (3 * PLAY_COLOR_LENGTH) < PLAY_COLOR_LENGTH ? PlayActivity.badColor : PlayActivity.goodColor);
             StringDraw.drawMaxString("PLAY!", this.playDrawData, canvas, this.p);
 
             // draw the help button
@@ -215,6 +443,12 @@ public class StartActivity extends AppCompatActivity
             canvas.drawRect(this.helpButton, this.p);
             this.p.setColor(Color.WHITE);
             StringDraw.drawMaxString("help?", this.helpDrawData, canvas, this.p);
+
+            // draw the profile button
+            this.p.setColor(Color.DKGRAY);
+            canvas.drawRect(this.profileButton, this.p);
+            this.p.setColor(Color.WHITE);
+            StringDraw.drawMaxString(this.profileLabel, this.profileDrawData, canvas, this.p);
         }
 
         /**
@@ -236,7 +470,6 @@ public class StartActivity extends AppCompatActivity
             int top = screenY + this.borderSize;
             int right = screenX + this.tileSize - this.borderSize;
             int bottom = screenY + this.tileSize - this.borderSize;
-            int drawSize = this.tileSize - 2 * this.borderSize;
 
             // draw the tile (ignoring any animation)
             canvas.drawRect(left, top, right, bottom, this.p);
@@ -246,24 +479,8 @@ public class StartActivity extends AppCompatActivity
                 // draw the polygon representing the animation over the drawn tile
 
                 this.animationPath.reset();
-
-                float animationFraction = PlayActivity.getMovableViewPosition((ANIMATION_LENGTH - toAnimationEnd) / (float) ANIMATION_LENGTH, 0.5f);
-
-                float bottomFraction = 2 * Math.min(animationFraction, 0.5f);
-
-                this.animationPath.moveTo(right - bottomFraction * drawSize, bottom);
-
-                if (animationFraction >= 0.5f)
-                {
-                    float topFraction = 2 * (animationFraction - 0.5f);
-
-                    this.animationPath.lineTo(left, bottom - topFraction * drawSize);
-                    this.animationPath.lineTo(right - topFraction * drawSize, top);
-                }
-
-                this.animationPath.lineTo(right, bottom - bottomFraction * drawSize);
-                this.animationPath.lineTo(right, bottom);
-                this.animationPath.close();
+                int frame = tileFlip.getFrame((ANIMATION_LENGTH - toAnimationEnd) / (float) ANIMATION_LENGTH);
+                tileFlip.addCover(this.animationPath, frame, left, top, right, bottom);
 
                 this.p.setColor(state ? PlayActivity.badColor : PlayActivity.goodColor);
 
@@ -273,46 +490,50 @@ public class StartActivity extends AppCompatActivity
 
         /**
          * Updates the view and requests a repaint.
+         * Frames are needed every display refresh only during a tile animation,
+         * otherwise the view is only updated when the next animation starts or the color of the play text changes.
          */
         @Override
-        public void run()
+        public long onFrame()
         {
-            if (this.keepUpdating)
+            this.invalidate();
+            if (!this.initialized)
             {
-                // if not animating
-                if (this.toAnimationEnd == 0)
-                {
-                    // decrease the time remaining to the next animation
-                    this.toNextAnimation--;
+                // the first frame is requested once the sizes are initialized on the first draw
+                return FrameScheduler.IDLE;
+            }
 
-                    // a new animation should start
-                    if (this.toNextAnimation == 0)
-                    {
-                        this.toNextAnimation = BETWEEN_ANIMATIONS_LENGTH;
-                        this.toAnimationEnd = ANIMATION_LENGTH;
-
-                        // choose a random tile (any tile except the one replaced by the help button)
-                        do
-                        {
-                            this.animatingX = (int) (Math.random() * this.gridWidth);
-                            this.animatingY = (int) (Math.random() * 3);
-                        } while (this.animatingX == this.helpTileX && this.animatingY == 2);
-
-                        // change the state of the selected tile
-                        int index = this.animatingX + this.gridWidth * this.animatingY;
-                        this.gridState[index] = !this.gridState[index];
-                    }
-                }
-                // if animating
-                else
+            long now = System.currentTimeMillis();
+            if (this.nextAnimationStart == 0)
+            {
+                this.nextAnimationStart = now + BETWEEN_ANIMATIONS_LENGTH;
+            }
+
+            // a new animation should start
+            if (this.toAnimationEnd == 0 && now >= this.nextAnimationStart)
+            {
+                this.animationEnd = now + ANIMATION_LENGTH;
+                this.nextAnimationStart = this.animationEnd + BETWEEN_ANIMATIONS_LENGTH;
+
+                // choose a random tile (any tile except the ones replaced by the help and the profile buttons)
+                do
                 {
-                    // proceed with the animation
-                    this.toAnimationEnd--;
-                }
+                    this.animatingX = (int) (Math.random() * this.gridWidth);
+                    this.animatingY = (int) (Math.random() * 3);
+                } while ((this.animatingX == this.helpTileX || this.animatingX == this.profileTileX) && this.animatingY == 2);
 
-                this.postInvalidate();
-                this.updateHandler.postDelayed(this, 17);
+                // change the state of the selected tile
+                int index = this.animatingX + this.gridWidth * this.animatingY;
+                this.gridState[index] = !this.gridState[index];
             }
+
+            // proceed with the animation
+            this.toAnimationEnd = (int) Math.max(0, this.animationEnd - now);
+            if (this.toAnimationEnd != 0)
+            {
+                return FrameScheduler.NEXT_FRAME;
+            }
+            return Math.min(this.nextAnimationStart - now, PLAY_COLOR_LENGTH - now % PLAY_COLOR_LENGTH);
         }
 
         @Override
@@ -349,6 +570,11 @@ public class StartActivity extends AppCompatActivity
                 {
                     this.attachedView.activity.goToHelp();
                 }
+                // profile button tapped
+                else if (this.attachedView.profileButton.contains(tapX, tapY))
+                {
+                    this.attachedView.activity.showProfiles();
+                }
 
                 return true;
             }
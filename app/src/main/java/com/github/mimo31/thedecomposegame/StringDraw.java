@@ -3,14 +3,38 @@ package com.github.mimo31.thedecomposegame;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.util.LruCache;
+
+import java.util.Arrays;
 
 /**
  * Created by Viktor on 3/11/2016.
  * <p>
  * Class for drawing strings into rectangular bounds.
+ * <p>
+ * The texts changing every frame can be drawn from a TextBuffer, so that drawing them does not allocate.
+ * <p>
+ * The results of fitting texts into bounds are kept in LRU caches keyed by the text, the bounds and the typeface,
+ * so a text drawn repeatedly into the same bounds is measured only once.
+ * Should only be used from the UI thread, the measuring Rect and the lookup key are shared.
  */
 public class StringDraw
 {
+    // the maximal number of entries of each of the caches
+    private static final int CACHE_ENTRIES = 64;
+
+    // the bounds of the measured text, reused so that measuring does not allocate
+    private static final Rect textBounds = new Rect();
+
+    // the cached results of getMaxTextSize, the keys have no align and bounds at (0, 0)
+    private static final LruCache<MeasureKey, Float> sizeCache = new LruCache<>(CACHE_ENTRIES);
+
+    // the cached results of getMaxStringData and getMaxNumberData
+    private static final LruCache<MeasureKey, StringDrawData> dataCache = new LruCache<>(CACHE_ENTRIES);
+
+    // the key used for looking up the caches, copied when an entry is added
+    private static final MeasureKey lookupKey = new MeasureKey();
 
     /**
      * Specifies the align of text for the StringDraw methods.
@@ -115,6 +139,54 @@ public class StringDraw
         canvas.drawText(s, data.x, data.y, p);
     }
 
+    /**
+     * Draws the text with the maximal possible size so that it still fits in the rectangle.
+     *
+     * @param text   the text to draw
+     * @param data   the StringDrawData object to use
+     * @param canvas the canvas to draw on
+     * @param p      the paint object to draw with
+     */
+    public static void drawMaxString(TextBuffer text, StringDrawData data, Canvas canvas, Paint p)
+    {
+        p.setTextSize(data.size);
+        canvas.drawText(text.chars, 0, text.length, data.x, data.y, p);
+    }
+
+    /**
+     * Draws the text with the maximal possible size so that it still fits in the rectangle.
+     *
+     * @param text   the text to draw
+     * @param bounds the rectangle to draw into
+     * @param align  the text align
+     * @param canvas the canvas to draw on
+     * @param p      the paint object to draw with
+     */
+    public static void drawMaxString(TextBuffer text, Rect bounds, TextAlign align, Canvas canvas, Paint p)
+    {
+        p.setTextSize(getMaxTextSize(text, bounds, p));
+        fitString(text, bounds.left, bounds.top, bounds.right, bounds.bottom, align, canvas, p);
+    }
+
+    /**
+     * Draws the text with the provided text size properly aligned within a rectangle.
+     *
+     * @param text     the text to draw
+     * @param left     the left of the rectangle to draw into
+     * @param top      the top of the rectangle to draw into
+     * @param right    the right of the rectangle to draw into
+     * @param bottom   the bottom of the rectangle to draw into
+     * @param align    the text align
+     * @param canvas   the canvas to draw on
+     * @param p        the paint object to use
+     * @param textSize the text size to draw the text with
+     */
+    public static void drawMaxString(TextBuffer text, int left, int top, int right, int bottom, TextAlign align, Canvas canvas, Paint p, float textSize)
+    {
+        p.setTextSize(textSize);
+        fitString(text, left, top, right, bottom, align, canvas, p);
+    }
+
     /**
      * Returns the StringDrawData object for drawing with the specified parameters.
      *
@@ -126,9 +198,47 @@ public class StringDraw
      */
     public static StringDrawData getMaxStringData(String s, Rect bounds, TextAlign align, Paint p)
     {
-        float size = getMaxTextSize(s, bounds, p);
-        p.setTextSize(size);
-        return getMaxStringData(s, bounds, align, p, size);
+        lookupKey.setText(s);
+        lookupKey.setBounds(bounds.left, bounds.top, bounds.right, bounds.bottom, align, p.getTypeface());
+        StringDrawData data = dataCache.get(lookupKey);
+        if (data == null)
+        {
+            MeasureKey key = lookupKey.copy();
+            float size = getMaxTextSize(s, bounds, p);
+            p.setTextSize(size);
+            data = getMaxStringData(s, bounds, align, p, size);
+            dataCache.put(key, data);
+        }
+        return data;
+    }
+
+    /**
+     * Returns the StringDrawData object for drawing a text whose digits change, such as a timer.
+     * Assumes that all the digits have the same size, which holds for monospaced typefaces and the tabular digits of the default ones,
+     * so the data is cached for the text with every digit replaced by 0. The text is measured only when its number of digits changes
+     * and the data for a number of digits once used is reused later.
+     *
+     * @param text   the text to draw
+     * @param bounds the rectangle to draw into
+     * @param align  the text align
+     * @param p      the paint object to use
+     * @return the corresponding StringDrawData object
+     */
+    public static StringDrawData getMaxNumberData(TextBuffer text, Rect bounds, TextAlign align, Paint p)
+    {
+        lookupKey.setDigitClassText(text.chars, text.length);
+        lookupKey.setBounds(bounds.left, bounds.top, bounds.right, bounds.bottom, align, p.getTypeface());
+        StringDrawData data = dataCache.get(lookupKey);
+        if (data == null)
+        {
+            MeasureKey key = lookupKey.copy();
+            String digitClassText = key.toString();
+            float size = getMaxTextSize(digitClassText, bounds, p);
+            p.setTextSize(size);
+            data = getMaxStringData(digitClassText, bounds, align, p, size);
+            dataCache.put(key, data);
+        }
+        return data;
     }
 
     /**
@@ -142,16 +252,47 @@ public class StringDraw
      */
     public static float getMaxTextSize(String s, Rect bounds, Paint p)
     {
+        lookupKey.setText(s);
+        lookupKey.setBounds(0, 0, bounds.right - bounds.left, bounds.bottom - bounds.top, null, p.getTypeface());
+        Float cachedSize = sizeCache.get(lookupKey);
+        if (cachedSize != null)
+        {
+            return cachedSize;
+        }
+        MeasureKey key = lookupKey.copy();
         p.setTextSize(100);
-        Rect bounds100 = new Rect();
-        p.getTextBounds(s, 0, s.length(), bounds100);
-        if ((bounds100.bottom - bounds100.top) / (float) (bounds100.right - bounds100.left) < (bounds.bottom - bounds.top) / (float) (bounds.right - bounds.left))
+        p.getTextBounds(s, 0, s.length(), textBounds);
+        float size = getMaxTextSize(bounds);
+        sizeCache.put(key, size);
+        return size;
+    }
+
+    /**
+     * Calculates the maximal text size used to draw a text so that it can still fit in the specified rectangle.
+     * Does not draw the text
+     *
+     * @param text   the text to calculate with
+     * @param bounds the enclosing rectangle
+     * @param p      the paint object to use
+     * @return the calculated maximal text size for drawing the text
+     */
+    public static float getMaxTextSize(TextBuffer text, Rect bounds, Paint p)
+    {
+        p.setTextSize(100);
+        p.getTextBounds(text.chars, 0, text.length, textBounds);
+        return getMaxTextSize(bounds);
+    }
+
+    // calculates the maximal text size from the textBounds measured with the text size 100
+    private static float getMaxTextSize(Rect bounds)
+    {
+        if ((textBounds.bottom - textBounds.top) / (float) (textBounds.right - textBounds.left) < (bounds.bottom - bounds.top) / (float) (bounds.right - bounds.left))
         {
-            return 100 * (bounds.right - bounds.left) / (float) (bounds100.right - bounds100.left);
+            return 100 * (bounds.right - bounds.left) / (float) (textBounds.right - textBounds.left);
         }
         else
         {
-            return 100 * (bounds.bottom - bounds.top) / (float) (bounds100.bottom - bounds100.top);
+            return 100 * (bounds.bottom - bounds.top) / (float) (textBounds.bottom - textBounds.top);
         }
     }
 
@@ -169,56 +310,26 @@ public class StringDraw
      */
     private static void fitString(String s, int left, int top, int right, int bottom, TextAlign align, Canvas canvas, Paint p)
     {
-        Rect textSize = new Rect();
-        p.getTextBounds(s, 0, s.length(), textSize);
-        int leftX = left - textSize.left;
-        int middleX = (left + right - textSize.left - textSize.right) / 2;
-        int rightX = right - textSize.right;
-        int upY = top - textSize.top;
-        int middleY = (top + bottom - textSize.top - textSize.bottom) / 2;
-        int downY = bottom - textSize.bottom;
-        int x;
-        int y;
-        switch (align)
-        {
-            case DOWN_LEFT:
-                x = leftX;
-                y = downY;
-                break;
-            case DOWN:
-                x = middleX;
-                y = downY;
-                break;
-            case DOWN_RIGHT:
-                x = rightX;
-                y = downY;
-                break;
-            case LEFT:
-                x = leftX;
-                y = middleY;
-                break;
-            case RIGHT:
-                x = rightX;
-                y = middleY;
-                break;
-            case UP:
-                x = middleX;
-                y = upY;
-                break;
-            case UP_LEFT:
-                x = leftX;
-                y = upY;
-                break;
-            case UP_RIGHT:
-                x = rightX;
-                y = upY;
-                break;
-            default:
-                x = middleX;
-                y = middleY;
+        p.getTextBounds(s, 0, s.length(), textBounds);
+        canvas.drawText(s, getAlignedX(left, right, align), getAlignedY(top, bottom, align), p);
+    }
 
-        }
-        canvas.drawText(s, x, y, p);
+    /**
+     * Draws a text properly aligned in the specified rectangle with the text size set in the paint object.
+     *
+     * @param text   the text to draw
+     * @param left   the left of the rectangle to draw into
+     * @param top    the top of the rectangle to draw into
+     * @param right  the right of the rectangle to draw into
+     * @param bottom the bottom of the rectangle to draw into
+     * @param align  the align of the text
+     * @param canvas the canvas to draw on
+     * @param p      the paint object to draw with
+     */
+    private static void fitString(TextBuffer text, int left, int top, int right, int bottom, TextAlign align, Canvas canvas, Paint p)
+    {
+        p.getTextBounds(text.chars, 0, text.length, textBounds);
+        canvas.drawText(text.chars, 0, text.length, getAlignedX(left, right, align), getAlignedY(top, bottom, align), p);
     }
 
     /**
@@ -232,120 +343,73 @@ public class StringDraw
      */
     private static void fitString(String s, Rect bounds, TextAlign align, Canvas canvas, Paint p)
     {
-        Rect textSize = new Rect();
-        p.getTextBounds(s, 0, s.length(), textSize);
-        int leftX = bounds.left - textSize.left;
-        int middleX = (bounds.left + bounds.right - textSize.left - textSize.right) / 2;
-        int rightX = bounds.right - textSize.right;
-        int upY = bounds.top - textSize.top;
-        int middleY = (bounds.top + bounds.bottom - textSize.top - textSize.bottom) / 2;
-        int downY = bounds.bottom - textSize.bottom;
-        int x;
-        int y;
+        fitString(s, bounds.left, bounds.top, bounds.right, bounds.bottom, align, canvas, p);
+    }
+
+    /**
+     * Calculates the x location to draw the text measured in textBounds at.
+     *
+     * @param left  the left of the rectangle to draw into
+     * @param right the right of the rectangle to draw into
+     * @param align the align of the text
+     * @return the x location to pass to drawText
+     */
+    private static int getAlignedX(int left, int right, TextAlign align)
+    {
         switch (align)
         {
             case DOWN_LEFT:
-                x = leftX;
-                y = downY;
-                break;
-            case DOWN:
-                x = middleX;
-                y = downY;
-                break;
-            case DOWN_RIGHT:
-                x = rightX;
-                y = downY;
-                break;
             case LEFT:
-                x = leftX;
-                y = middleY;
-                break;
-            case RIGHT:
-                x = rightX;
-                y = middleY;
-                break;
-            case UP:
-                x = middleX;
-                y = upY;
-                break;
             case UP_LEFT:
-                x = leftX;
-                y = upY;
-                break;
+                return left - textBounds.left;
+            case DOWN_RIGHT:
+            case RIGHT:
             case UP_RIGHT:
-                x = rightX;
-                y = upY;
-                break;
+                return right - textBounds.right;
             default:
-                x = middleX;
-                y = middleY;
-
+                return (left + right - textBounds.left - textBounds.right) / 2;
         }
-        canvas.drawText(s, x, y, p);
     }
 
     /**
-     * Returns the StringDrawData object for drawing with the specified parameters.
+     * Calculates the y location to draw the text measured in textBounds at.
      *
-     * @param s      the string to draw
-     * @param bounds the to draw into
-     * @param align  the align of text
-     * @param p      the paint object to draw with
-     * @param size   the text size to draw with (should be first calculated by the getMaxTextSize method)
-     * @return the corresponding StringDrawData object.
+     * @param top    the top of the rectangle to draw into
+     * @param bottom the bottom of the rectangle to draw into
+     * @param align  the align of the text
+     * @return the y location to pass to drawText
      */
-    private static StringDrawData getMaxStringData(String s, Rect bounds, TextAlign align, Paint p, float size)
+    private static int getAlignedY(int top, int bottom, TextAlign align)
     {
-        Rect textSize = new Rect();
-        p.getTextBounds(s, 0, s.length(), textSize);
-        int leftX = bounds.left - textSize.left;
-        int middleX = (bounds.left + bounds.right - textSize.left - textSize.right) / 2;
-        int rightX = bounds.right - textSize.right;
-        int upY = bounds.top - textSize.top;
-        int middleY = (bounds.top + bounds.bottom - textSize.top - textSize.bottom) / 2;
-        int downY = bounds.bottom - textSize.bottom;
-        int x;
-        int y;
         switch (align)
         {
             case DOWN_LEFT:
-                x = leftX;
-                y = downY;
-                break;
             case DOWN:
-                x = middleX;
-                y = downY;
-                break;
             case DOWN_RIGHT:
-                x = rightX;
-                y = downY;
-                break;
-            case LEFT:
-                x = leftX;
-                y = middleY;
-                break;
-            case RIGHT:
-                x = rightX;
-                y = middleY;
-                break;
-            case UP:
-                x = middleX;
-                y = upY;
-                break;
+                return bottom - textBounds.bottom;
             case UP_LEFT:
-                x = leftX;
-                y = upY;
-                break;
+            case UP:
             case UP_RIGHT:
-                x = rightX;
-                y = upY;
-                break;
+                return top - textBounds.top;
             default:
-                x = middleX;
-                y = middleY;
-
+                return (top + bottom - textBounds.top - textBounds.bottom) / 2;
         }
-        return new StringDrawData(x, y, size);
+    }
+
+    /**
+     * Returns the StringDrawData object for drawing with the specified parameters.
+     *
+     * @param s      the string to draw
+     * @param bounds the to draw into
+     * @param align  the align of text
+     * @param p      the paint object to draw with
+     * @param size   the text size to draw with (should be first calculated by the getMaxTextSize method)
+     * @return the corresponding StringDrawData object.
+     */
+    private static StringDrawData getMaxStringData(String s, Rect bounds, TextAlign align, Paint p, float size)
+    {
+        p.getTextBounds(s, 0, s.length(), textBounds);
+        return new StringDrawData(getAlignedX(bounds.left, bounds.right, align), getAlignedY(bounds.top, bounds.bottom, align), size);
     }
 
     /**
@@ -407,6 +471,130 @@ public class StringDraw
         r.bottom -= borderSize;
     }
 
+    /**
+     * The key of the cached measurements - the text with the bounds, the align and the typeface it was fitted with.
+     * Keeps its own copy of the text, so that a lookup key can be refilled without allocating.
+     */
+    private static class MeasureKey
+    {
+        private char[] text;
+        private int length;
+        private int left;
+        private int top;
+        private int right;
+        private int bottom;
+
+        // null for the keys of the text sizes
+        private TextAlign align;
+
+        private Typeface typeface;
+        private int hash;
+
+        private MeasureKey()
+        {
+            this.text = new char[32];
+        }
+
+        private void ensureCapacity(int length)
+        {
+            if (this.text.length < length)
+            {
+                this.text = new char[Math.max(length, 2 * this.text.length)];
+            }
+        }
+
+        private void setText(String s)
+        {
+            this.ensureCapacity(s.length());
+            s.getChars(0, s.length(), this.text, 0);
+            this.length = s.length();
+        }
+
+        // sets the text with all the digits replaced by 0
+        private void setDigitClassText(char[] chars, int length)
+        {
+            this.ensureCapacity(length);
+            for (int i = 0; i < length; i++)
+            {
+                this.text[i] = chars[i] >= '0' && chars[i] <= '9' ? '0' : chars[i];
+            }
+            this.length = length;
+        }
+
+        // sets the rest of the key, should be called after the text is set
+        private void setBounds(int left, int top, int right, int bottom, TextAlign align, Typeface typeface)
+        {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+            this.align = align;
+            this.typeface = typeface;
+            int hash = 0;
+            for (int i = 0; i < this.length; i++)
+            {
+                hash = 31 * hash + this.text[i];
+            }
+            hash = 31 * hash + left;
+            hash = 31 * hash + top;
+            hash = 31 * hash + right;
+            hash = 31 * hash + bottom;
+            hash = 31 * hash + (align == null ? 0 : align.ordinal() + 1);
+            hash = 31 * hash + (typeface == null ? 0 : typeface.hashCode());
+            this.hash = hash;
+        }
+
+        private MeasureKey copy()
+        {
+            MeasureKey copy = new MeasureKey();
+            copy.text = Arrays.copyOf(this.text, this.length);
+            copy.length = this.length;
+            copy.left = this.left;
+            copy.top = this.top;
+            copy.right = this.right;
+            copy.bottom = this.bottom;
+            copy.align = this.align;
+            copy.typeface = this.typeface;
+            copy.hash = this.hash;
+            return copy;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof MeasureKey))
+            {
+                return false;
+            }
+            MeasureKey other = (MeasureKey) o;
+            if (this.hash != other.hash || this.length != other.length || this.left != other.left || this.top != other.top || this.right != other.right
+                    || this.bottom != other.bottom || this.align != other.align || this.typeface != other.typeface)
+            {
+                return false;
+            }
+            for (int i = 0; i < this.length; i++)
+            {
+                if (this.text[i] != other.text[i])
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return this.hash;
+        }
+
+        @Override
+        public String toString()
+        {
+            return new String(this.text, 0, this.length);
+        }
+    }
+
     /**
      * Contains precalculated data about drawing a specific string.
      */
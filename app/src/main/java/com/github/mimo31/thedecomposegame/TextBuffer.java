@@ -0,0 +1,100 @@
+package com.github.mimo31.thedecomposegame;
+
+/**
+ * A reusable buffer of characters for building the texts drawn every frame without allocating Strings.
+ * The appending methods return the buffer, so they can be chained.
+ */
+public class TextBuffer
+{
+    /**
+     * The characters of the text, valid from 0 to length - 1.
+     */
+    public final char[] chars;
+
+    /**
+     * The number of characters of the text.
+     */
+    public int length;
+
+    /**
+     * @param capacity the maximal number of characters of the text
+     */
+    public TextBuffer(int capacity)
+    {
+        this.chars = new char[capacity];
+    }
+
+    /**
+     * Removes all the characters.
+     *
+     * @return this buffer
+     */
+    public TextBuffer clear()
+    {
+        this.length = 0;
+        return this;
+    }
+
+    /**
+     * @param s the string to append
+     * @return this buffer
+     */
+    public TextBuffer append(String s)
+    {
+        s.getChars(0, s.length(), this.chars, this.length);
+        this.length += s.length();
+        return this;
+    }
+
+    /**
+     * Appends a non-negative number in the decimal form.
+     *
+     * @param value     the number to append
+     * @param minDigits the minimal number of digits, the number is padded with zeros to this length
+     * @return this buffer
+     */
+    public TextBuffer append(long value, int minDigits)
+    {
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10)
+        {
+            digits++;
+        }
+        digits = Math.max(digits, minDigits);
+        for (int i = this.length + digits - 1; i >= this.length; i--)
+        {
+            this.chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        this.length += digits;
+        return this;
+    }
+
+    /**
+     * Appends a non-negative number in the decimal form.
+     *
+     * @param value the number to append
+     * @return this buffer
+     */
+    public TextBuffer append(long value)
+    {
+        return this.append(value, 1);
+    }
+
+    /**
+     * Appends a time in the format #.### (seconds with milliseconds).
+     *
+     * @param millis the number of milliseconds
+     * @return this buffer
+     */
+    public TextBuffer appendTime(int millis)
+    {
+        return this.append(millis / 1000).append(".").append(millis % 1000, 3);
+    }
+
+    @Override
+    public String toString()
+    {
+        return new String(this.chars, 0, this.length);
+    }
+}
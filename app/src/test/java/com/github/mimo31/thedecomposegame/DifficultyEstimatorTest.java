@@ -0,0 +1,87 @@
+package com.github.mimo31.thedecomposegame;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the difficulty estimation - that it is reproducible and that it reports trivial levels as trivial.
+ */
+public class DifficultyEstimatorTest
+{
+    @BeforeClass
+    public static void initializeLevels()
+    {
+        ClickField.initializeClickFields();
+        Level.initializeLevels();
+    }
+
+    @Test
+    public void sameSeedGivesSameReport() throws IOException, InterruptedException
+    {
+        String first = report(DifficultyEstimator.estimate(Level.levels, 200, 4, 42));
+        String second = report(DifficultyEstimator.estimate(Level.levels, 200, 4, 42));
+        assertEquals(first, second);
+        assertEquals(Level.levels.length + 1, first.split("\n").length);
+    }
+
+    @Test
+    public void trivialLevelNeverFails() throws InterruptedException
+    {
+        // the only valid move clears the board
+        Level trivial = new Level(2, 2, new int[] { 0, 0, 0 }, new ClickField[] { ClickField.allClickFields[0] });
+        DifficultyEstimator.LevelReport report = DifficultyEstimator.estimate(new Level[] { trivial }, 100, 4, 7)[0];
+        assertEquals(100, report.playouts);
+        assertEquals(100, report.cleared);
+        assertEquals(0, report.getFailRate(), 0);
+        assertEquals(0, report.getDeadEndRate(), 0);
+        assertEquals(1, report.getMovesPercentile(0));
+        assertEquals(1, report.getMovesPercentile(100));
+    }
+
+    @Test
+    public void mainWritesReportOfAllLevels() throws IOException, InterruptedException
+    {
+        File file = File.createTempFile("Difficulty", ".csv");
+        try
+        {
+            DifficultyEstimator.main(new String[] { file.getPath(), "20", "4", "1" });
+            String[] expectedLines = report(DifficultyEstimator.estimate(Level.levels, 20, 4, 1)).split("\n");
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            String[] lines = new String[expectedLines.length];
+            try
+            {
+                for (int i = 0; i < lines.length; i++)
+                {
+                    lines[i] = reader.readLine();
+                }
+                assertNull(reader.readLine());
+            }
+            finally
+            {
+                reader.close();
+            }
+            assertArrayEquals(expectedLines, lines);
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    private static String report(DifficultyEstimator.LevelReport[] reports) throws IOException
+    {
+        StringWriter writer = new StringWriter();
+        DifficultyEstimator.writeReport(reports, writer);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,182 @@
+package com.github.mimo31.thedecomposegame;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the copy-on-write forks of the GameDesk against plain arrays of the tile states -
+ * that a write to a desk never shows in its original or its sibling forks and that sharesRow never claims a row which differs.
+ * The desks span several blocks of rows and several words per row, so the moves cross both boundaries.
+ */
+public class GameDeskTest
+{
+    // a width of three words per row and a height of three and a half blocks
+    private static final int WIDTH = 150;
+    private static final int HEIGHT = 28;
+
+    @BeforeClass
+    public static void initializeClickFields()
+    {
+        ClickField.initializeClickFields();
+    }
+
+    @Test
+    public void writeToForkLeavesOriginalAndSiblingUnchanged()
+    {
+        boolean[] states = randomStates(new Random(3));
+        GameDesk original = new GameDesk(WIDTH, HEIGHT, states);
+        GameDesk fork = original.fork();
+        GameDesk sibling = original.fork();
+
+        // the 3x3 field centered on the tile (64, 8) changes the rows 7 to 9 of the first two blocks and the words 0 and 1
+        ClickField field = ClickField.allClickFields[3];
+        assertTrue(fork.applyField(field, 64, 8));
+        boolean[] forkStates = states.clone();
+        apply(forkStates, field, 64, 8);
+
+        assertStates(states, original);
+        assertStates(states, sibling);
+        assertStates(forkStates, fork);
+
+        // the blocks which were not written are still shared, the written ones are not
+        for (int y = 0; y < HEIGHT; y++)
+        {
+            assertEquals("row " + y, y >= 16, fork.sharesRow(original, y));
+            assertTrue("row " + y, sibling.sharesRow(original, y));
+        }
+    }
+
+    @Test
+    public void writeToOriginalLeavesForkUnchanged()
+    {
+        boolean[] states = randomStates(new Random(5));
+        GameDesk original = new GameDesk(WIDTH, HEIGHT, states);
+        GameDesk fork = original.fork();
+
+        // the last block has only four rows
+        ClickField field = ClickField.allClickFields[0];
+        assertTrue(original.applyField(field, WIDTH - 2, HEIGHT - 2));
+        boolean[] originalStates = states.clone();
+        apply(originalStates, field, WIDTH - 2, HEIGHT - 2);
+
+        assertStates(originalStates, original);
+        assertStates(states, fork);
+        assertFalse(original.sharesRow(fork, HEIGHT - 1));
+        assertTrue(original.sharesRow(fork, 0));
+
+        // writing the same block again writes the copy owned by the original
+        assertTrue(original.applyField(field, WIDTH - 2, HEIGHT - 2));
+        assertStates(states, original);
+        assertStates(states, fork);
+    }
+
+    @Test
+    public void animationOfForkLeavesOriginalUnchanged()
+    {
+        GameDesk original = new GameDesk(WIDTH, HEIGHT, randomStates(new Random(7)));
+        ClickField field = ClickField.allClickFields[0];
+        assertTrue(original.doAttempt(field, 0, 0));
+        GameDesk fork = original.fork();
+        assertTrue(fork.doAttempt(field, 100, 20));
+
+        assertTrue(original.animated(0, 0));
+        assertFalse(original.animated(100, 20));
+        assertFalse(fork.animated(0, 0));
+        assertTrue(fork.animated(100, 20));
+    }
+
+    @Test
+    public void randomForksAndWritesMatchArrays()
+    {
+        Random random = new Random(11);
+        List<GameDesk> desks = new ArrayList<>();
+        List<boolean[]> expected = new ArrayList<>();
+        boolean[] states = randomStates(random);
+        desks.add(new GameDesk(WIDTH, HEIGHT, states));
+        expected.add(states);
+
+        for (int step = 0; step < 2000; step++)
+        {
+            int index = random.nextInt(desks.size());
+            GameDesk desk = desks.get(index);
+            if (random.nextInt(4) == 0 && desks.size() < 32)
+            {
+                desks.add(desk.fork());
+                expected.add(expected.get(index).clone());
+                continue;
+            }
+            ClickField field = ClickField.allClickFields[random.nextInt(ClickField.allClickFields.length)];
+            int x = random.nextInt(WIDTH);
+            int y = random.nextInt(HEIGHT);
+            boolean valid = desk.canApply(field, x, y);
+            assertEquals(valid, desk.applyField(field, x, y));
+            if (valid)
+            {
+                apply(expected.get(index), field, x, y);
+            }
+        }
+
+        for (int i = 0; i < desks.size(); i++)
+        {
+            assertStates(expected.get(i), desks.get(i));
+            for (int j = 0; j < desks.size(); j++)
+            {
+                for (int y = 0; y < HEIGHT; y++)
+                {
+                    if (desks.get(i).sharesRow(desks.get(j), y))
+                    {
+                        for (int word = 0; word < desks.get(i).wordsPerRow; word++)
+                        {
+                            assertEquals(desks.get(j).getWord(y, word), desks.get(i).getWord(y, word));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean[] randomStates(Random random)
+    {
+        boolean[] states = new boolean[WIDTH * HEIGHT];
+        for (int i = 0; i < states.length; i++)
+        {
+            states[i] = random.nextBoolean();
+        }
+        return states;
+    }
+
+    // flips the states of the tiles of a ClickField applied at a valid location
+    private static void apply(boolean[] states, ClickField field, int x, int y)
+    {
+        for (int i = field.getMinX(); i <= field.getMaxX(); i++)
+        {
+            for (int j = field.getMinY(); j <= field.getMaxY(); j++)
+            {
+                if (field.getInClickCoordinates(i, j))
+                {
+                    int index = (x + i) + WIDTH * (y + j);
+                    states[index] = !states[index];
+                }
+            }
+        }
+    }
+
+    private static void assertStates(boolean[] states, GameDesk desk)
+    {
+        for (int y = 0; y < HEIGHT; y++)
+        {
+            for (int x = 0; x < WIDTH; x++)
+            {
+                assertEquals("tile " + x + ", " + y, states[x + WIDTH * y], desk.state(x, y));
+            }
+        }
+    }
+}
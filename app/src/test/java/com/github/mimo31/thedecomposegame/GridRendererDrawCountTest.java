@@ -0,0 +1,151 @@
+package com.github.mimo31.thedecomposegame;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Counts the draw calls GridRenderer.drawAnimation issues for the animated tiles of a move with the ClickFields 6 to 10
+ * on 12x12 and 64x64 boards and prints them as a table.
+ * The animated tiles of all the moves are drawn with one drawPath call per color, no matter how many tiles a ClickField flips.
+ * Runs against the Android stubs returning default values, the Canvas is replaced by one which only counts the calls.
+ */
+public class GridRendererDrawCountTest
+{
+    // the ClickFields the draw calls are counted for
+    private static final int FIRST_FIELD = 6;
+    private static final int LAST_FIELD = 10;
+
+    // the sizes of the boards the draw calls are counted on
+    private static final int[] BOARD_SIZES = { 12, 64 };
+
+    // the size of a tile, big enough to have the grid lines drawn
+    private static final float TILE_SIZE = 48;
+
+    /**
+     * A Canvas which only counts the draw calls, the drawPath calls by the Path drawn.
+     */
+    private static class CountingCanvas extends Canvas
+    {
+        private final Map<Path, Integer> pathDraws = new IdentityHashMap<>();
+        private int rectDraws;
+        private int lineDraws;
+
+        @Override
+        public void drawPath(Path path, Paint paint)
+        {
+            Integer draws = this.pathDraws.get(path);
+            this.pathDraws.put(path, draws == null ? 1 : draws + 1);
+        }
+
+        @Override
+        public void drawRect(float left, float top, float right, float bottom, Paint paint)
+        {
+            this.rectDraws++;
+        }
+
+        @Override
+        public void drawRect(Rect r, Paint paint)
+        {
+            this.rectDraws++;
+        }
+
+        @Override
+        public void drawRect(RectF r, Paint paint)
+        {
+            this.rectDraws++;
+        }
+
+        @Override
+        public void drawLines(float[] pts, int offset, int count, Paint paint)
+        {
+            this.lineDraws++;
+        }
+
+        @Override
+        public void drawLines(float[] pts, Paint paint)
+        {
+            this.lineDraws++;
+        }
+
+        private int getPathDraws()
+        {
+            int draws = 0;
+            for (int pathDraws : this.pathDraws.values())
+            {
+                draws += pathDraws;
+            }
+            return draws;
+        }
+    }
+
+    @BeforeClass
+    public static void initializeClickFields()
+    {
+        ClickField.initializeClickFields();
+    }
+
+    @Test
+    public void drawsAnimatedTilesWithOnePathPerColor()
+    {
+        System.out.println("board  ClickField  animated tiles  drawPath per color  drawPath  drawRect  drawLines");
+        for (int boardSize : BOARD_SIZES)
+        {
+            for (int fieldIndex = FIRST_FIELD; fieldIndex <= LAST_FIELD; fieldIndex++)
+            {
+                ClickField field = ClickField.allClickFields[fieldIndex];
+                GameDesk desk = new GameDesk(boardSize, boardSize);
+                int x = boardSize / 2;
+                int y = boardSize / 2;
+                assertTrue(desk.doAttempt(field, x, y));
+
+                GridRenderer renderer = new GridRenderer(0);
+                renderer.setSize(boardSize, boardSize, TILE_SIZE);
+                CountingCanvas canvas = new CountingCanvas();
+                renderer.drawAnimation(canvas, 0, 0, desk, 0.5f, x + field.getMinX(), y + field.getMinY(), x + field.getMaxX(), y + field.getMaxY());
+
+                int flippedTiles = countFlippedTiles(field);
+                System.out.println(String.format("%2dx%-2d  %10d  %14d  %18s  %8d  %8d  %9d", boardSize, boardSize, fieldIndex,
+                        renderer.getAnimatedTilesDrawn(), canvas.pathDraws.values(), canvas.getPathDraws(), canvas.rectDraws, canvas.lineDraws));
+
+                assertEquals(flippedTiles, renderer.getAnimatedTilesDrawn());
+                assertEquals("a Path per color", 2, canvas.pathDraws.size());
+                for (int draws : canvas.pathDraws.values())
+                {
+                    assertEquals("each color drawn once", 1, draws);
+                }
+                assertEquals(2, renderer.getAnimationPathsDrawn());
+                assertEquals(0, canvas.rectDraws);
+                assertEquals(1, canvas.lineDraws);
+            }
+        }
+    }
+
+    // counts the tiles flipped by a ClickField
+    private static int countFlippedTiles(ClickField field)
+    {
+        int count = 0;
+        for (int i = field.getMinX(); i <= field.getMaxX(); i++)
+        {
+            for (int j = field.getMinY(); j <= field.getMaxY(); j++)
+            {
+                if (field.getInClickCoordinates(i, j))
+                {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
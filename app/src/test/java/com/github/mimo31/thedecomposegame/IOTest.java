@@ -0,0 +1,134 @@
+package com.github.mimo31.thedecomposegame;
+
+import android.content.ContextWrapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Tests that the files of records appended to by IO stay aligned when an append fails partway.
+ */
+public class IOTest
+{
+    /**
+     * A context with its own files directory.
+     */
+    private static class DirectoryContext extends ContextWrapper
+    {
+        private final File directory;
+
+        DirectoryContext(File directory)
+        {
+            super(null);
+            this.directory = directory;
+        }
+
+        @Override
+        public File getFilesDir()
+        {
+            return this.directory;
+        }
+    }
+
+    private File directory;
+    private DirectoryContext context;
+
+    @BeforeClass
+    public static void initializeLevels()
+    {
+        ClickField.initializeClickFields();
+        Level.initializeLevels();
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        this.directory = File.createTempFile("Files", "");
+        this.directory.delete();
+        this.directory.mkdirs();
+        this.context = new DirectoryContext(this.directory);
+        IO.loadData(this.context);
+    }
+
+    @After
+    public void tearDown()
+    {
+        IO.awaitWriter();
+        File[] files = this.directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                file.delete();
+            }
+        }
+        this.directory.delete();
+        Level.setSave(null);
+        Level.maxLevel = 0;
+    }
+
+    @Test
+    public void journalAppendsAfterTornRecord() throws IOException
+    {
+        IO.saveCompletion(this.context, 2, 1234);
+        IO.awaitWriter();
+
+        // an append failed partway during the session
+        appendGarbage(new File(this.directory, "Progress.journal"), 3);
+
+        IO.saveCompletion(this.context, 5, 777);
+        IO.awaitWriter();
+        IO.loadData(this.context);
+        assertEquals(1234, Level.getBestTime(2));
+        assertEquals(777, Level.getBestTime(5));
+        assertEquals(2, Level.getBestTimes().size());
+    }
+
+    @Test
+    public void runAppendsAfterTornRecord() throws IOException
+    {
+        IO.saveRunStart(this.context, 0, new MoveJournal(), 0);
+        IO.saveRunMove(this.context, 1, 2, 0, 100);
+        IO.awaitWriter();
+
+        // an append failed partway during the session
+        appendGarbage(new File(this.directory, "Run.dat"), 5);
+
+        IO.saveRunMove(this.context, 2, 1, 0, 200);
+        IO.awaitWriter();
+        IO.loadData(this.context);
+        IO.SavedRun run = IO.loadRun(this.context);
+        assertNotNull(run);
+        assertEquals(0, run.level);
+        assertEquals(2, run.journal.size());
+        assertEquals(1, run.journal.getX(0));
+        assertEquals(2, run.journal.getX(1));
+        assertEquals(1, run.journal.getY(1));
+        assertEquals(200, run.millisTaken);
+    }
+
+    private static void appendGarbage(File file, int length) throws IOException
+    {
+        FileOutputStream outputStream = new FileOutputStream(file, true);
+        try
+        {
+            for (int i = 0; i < length; i++)
+            {
+                outputStream.write(0x5a);
+            }
+        }
+        finally
+        {
+            outputStream.close();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.mimo31.thedecomposegame;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the IntIntMap against a HashMap.
+ */
+public class IntIntMapTest
+{
+    @Test
+    public void emptyMapHasNoEntries()
+    {
+        IntIntMap map = new IntIntMap();
+        assertEquals(0, map.size());
+        assertEquals(0, map.get(0));
+        assertEquals(0, map.get(12345));
+        assertArrayEquals(new int[0], map.sortedKeys());
+    }
+
+    @Test
+    public void matchesHashMap()
+    {
+        Random random = new Random(47);
+        IntIntMap map = new IntIntMap();
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++)
+        {
+            // consecutive keys as the levels are, with some far apart and repeated ones
+            int key = random.nextInt(4) == 0 ? random.nextInt(Integer.MAX_VALUE) : random.nextInt(5000);
+            int value = random.nextInt();
+            map.put(key, value);
+            expected.put(key, value);
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet())
+        {
+            assertEquals((int) entry.getValue(), map.get(entry.getKey()));
+        }
+        for (int key = 0; key < 10000; key++)
+        {
+            if (!expected.containsKey(key))
+            {
+                assertEquals(0, map.get(key));
+            }
+        }
+
+        int[] expectedKeys = new int[expected.size()];
+        int i = 0;
+        for (int key : expected.keySet())
+        {
+            expectedKeys[i++] = key;
+        }
+        Arrays.sort(expectedKeys);
+        assertArrayEquals(expectedKeys, map.sortedKeys());
+    }
+
+    @Test
+    public void overwritesValues()
+    {
+        IntIntMap map = new IntIntMap();
+        map.put(7, 1);
+        map.put(7, 2);
+        assertEquals(1, map.size());
+        assertEquals(2, map.get(7));
+    }
+}
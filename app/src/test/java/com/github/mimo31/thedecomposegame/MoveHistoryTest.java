@@ -0,0 +1,170 @@
+package com.github.mimo31.thedecomposegame;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests seeking in the MoveHistory against replaying the moves from the beginning of the run,
+ * on and between the checkpoints, after the checkpoint interval has doubled and after truncating the run.
+ */
+public class MoveHistoryTest
+{
+    private static final int WIDTH = 20;
+    private static final int HEIGHT = 12;
+
+    // the first checkpoint interval and the number of checkpoints kept by the MoveHistory
+    private static final int INTERVAL = 16;
+    private static final int MAX_CHECKPOINTS = 64;
+
+    private static ClickField[] fields;
+
+    @BeforeClass
+    public static void initializeClickFields()
+    {
+        ClickField.initializeClickFields();
+        fields = new ClickField[] { ClickField.allClickFields[0], ClickField.allClickFields[3], ClickField.allClickFields[5] };
+    }
+
+    @Test
+    public void seeksOnAndBetweenCheckpoints()
+    {
+        Random random = new Random(13);
+        GameDesk initialDesk = randomDesk(random);
+        GameDesk desk = initialDesk.fork();
+        MoveHistory history = new MoveHistory(initialDesk, fields, new MoveJournal());
+        recordMoves(history, desk, random, 5 * INTERVAL + 3);
+
+        for (int moveCount = 0; moveCount <= history.size(); moveCount++)
+        {
+            assertDesk(replay(initialDesk, history.getJournal(), moveCount), history.getDeskAt(moveCount), moveCount);
+        }
+        assertDesk(desk, history.getDeskAt(history.size()), history.size());
+    }
+
+    @Test
+    public void seeksAfterIntervalDoubles()
+    {
+        Random random = new Random(17);
+        GameDesk initialDesk = randomDesk(random);
+        GameDesk desk = initialDesk.fork();
+        MoveHistory history = new MoveHistory(initialDesk, fields, new MoveJournal());
+
+        // the interval doubles twice, at MAX_CHECKPOINTS * INTERVAL and at twice as many moves
+        recordMoves(history, desk, random, 4 * MAX_CHECKPOINTS * INTERVAL + 5);
+        assertSeeks(initialDesk, history, random);
+        assertDesk(desk, history.getDeskAt(history.size()), history.size());
+    }
+
+    @Test
+    public void seeksAfterTruncateAndRecord()
+    {
+        Random random = new Random(19);
+        GameDesk initialDesk = randomDesk(random);
+        GameDesk desk = initialDesk.fork();
+        MoveHistory history = new MoveHistory(initialDesk, fields, new MoveJournal());
+        recordMoves(history, desk, random, 2 * MAX_CHECKPOINTS * INTERVAL + 7);
+
+        // back between two checkpoints, then on one, then to the beginning
+        int[] truncations = { 1000, 3 * 2 * INTERVAL, 0 };
+        for (int moveCount : truncations)
+        {
+            history.truncate(moveCount);
+            assertEquals(moveCount, history.size());
+            desk = history.getDeskAt(moveCount);
+            assertDesk(replay(initialDesk, history.getJournal(), moveCount), desk, moveCount);
+
+            recordMoves(history, desk, random, 3 * INTERVAL + 1);
+            assertSeeks(initialDesk, history, random);
+            assertDesk(desk, history.getDeskAt(history.size()), history.size());
+        }
+    }
+
+    @Test
+    public void loadedRunIsReplayedOnce()
+    {
+        Random random = new Random(23);
+        GameDesk initialDesk = randomDesk(random);
+        GameDesk desk = initialDesk.fork();
+        MoveHistory recorded = new MoveHistory(initialDesk, fields, new MoveJournal());
+        recordMoves(recorded, desk, random, 100);
+
+        // a move outside the board and the ones after it are dropped
+        MoveJournal journal = recorded.getJournal().copy();
+        journal.add(WIDTH + 5, 0, 0, 1000);
+        journal.add(0, 0, 0, 1001);
+        GameDesk replayedDesk = initialDesk.fork();
+        MoveHistory replayed = MoveHistory.replay(replayedDesk, fields, journal);
+        assertEquals(100, replayed.size());
+        assertDesk(desk, replayedDesk, 100);
+        assertSeeks(initialDesk, replayed, random);
+    }
+
+    // records random valid moves on the desk and in the history
+    private static void recordMoves(MoveHistory history, GameDesk desk, Random random, int count)
+    {
+        for (int i = 0; i < count; )
+        {
+            int fieldIndex = random.nextInt(fields.length);
+            int x = random.nextInt(WIDTH);
+            int y = random.nextInt(HEIGHT);
+            if (desk.applyField(fields[fieldIndex], x, y))
+            {
+                history.record(desk, x, y, fieldIndex, history.size());
+                i++;
+            }
+        }
+    }
+
+    // checks the desks at the ends of the run, at the checkpoints of every interval and at random moves
+    private static void assertSeeks(GameDesk initialDesk, MoveHistory history, Random random)
+    {
+        for (int interval = INTERVAL; interval <= 4 * INTERVAL; interval *= 2)
+        {
+            for (int moveCount = 0; moveCount <= history.size(); moveCount += interval)
+            {
+                assertDesk(replay(initialDesk, history.getJournal(), moveCount), history.getDeskAt(moveCount), moveCount);
+            }
+        }
+        for (int i = 0; i < 50; i++)
+        {
+            int moveCount = random.nextInt(history.size() + 1);
+            assertDesk(replay(initialDesk, history.getJournal(), moveCount), history.getDeskAt(moveCount), moveCount);
+        }
+    }
+
+    // replays the first moves of a journal from the beginning of the run
+    private static GameDesk replay(GameDesk initialDesk, MoveJournal journal, int moveCount)
+    {
+        GameDesk desk = initialDesk.fork();
+        for (int i = 0; i < moveCount; i++)
+        {
+            journal.apply(i, desk, fields);
+        }
+        return desk;
+    }
+
+    private static GameDesk randomDesk(Random random)
+    {
+        boolean[] states = new boolean[WIDTH * HEIGHT];
+        for (int i = 0; i < states.length; i++)
+        {
+            states[i] = random.nextBoolean();
+        }
+        return new GameDesk(WIDTH, HEIGHT, states);
+    }
+
+    private static void assertDesk(GameDesk expected, GameDesk actual, int moveCount)
+    {
+        for (int y = 0; y < HEIGHT; y++)
+        {
+            for (int x = 0; x < WIDTH; x++)
+            {
+                assertEquals("after " + moveCount + " moves, tile " + x + ", " + y, expected.state(x, y), actual.state(x, y));
+            }
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.github.mimo31.thedecomposegame;
+
+import android.content.ContextWrapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the progress transfer - that the progress exported on one device and imported on another one is merged in
+ * together with the replays and survives reloading, and that a corrupted blob or an invalid replay is rejected.
+ */
+public class ProgressTransferTest
+{
+    /**
+     * A context of a device with its own files and cache directories.
+     */
+    private static class DeviceContext extends ContextWrapper
+    {
+        private final File directory;
+
+        DeviceContext(File directory)
+        {
+            super(null);
+            this.directory = directory;
+        }
+
+        @Override
+        public File getFilesDir()
+        {
+            return new File(this.directory, "files");
+        }
+
+        @Override
+        public File getCacheDir()
+        {
+            return new File(this.directory, "cache");
+        }
+    }
+
+    private File directory;
+    private DeviceContext source;
+    private DeviceContext target;
+
+    @BeforeClass
+    public static void initializeLevels()
+    {
+        ClickField.initializeClickFields();
+        Level.initializeLevels();
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        this.directory = File.createTempFile("Transfer", "");
+        this.directory.delete();
+        this.source = new DeviceContext(new File(this.directory, "source"));
+        this.target = new DeviceContext(new File(this.directory, "target"));
+        this.source.getFilesDir().mkdirs();
+        this.target.getFilesDir().mkdirs();
+    }
+
+    @After
+    public void tearDown()
+    {
+        IO.awaitWriter();
+        delete(this.directory);
+        Level.setSave(null);
+        Level.maxLevel = 0;
+    }
+
+    @Test
+    public void roundTripCopiesProgress() throws IOException
+    {
+        IO.loadData(this.source);
+        Level.setBestTime(3, 5000);
+        Level.setBestTime(7, 9000);
+        Level.maxLevel = 8;
+        IO.saveReplay(this.source, 3, solution(500));
+        IO.compact(this.source);
+        byte[] blob = export(this.source);
+
+        IO.loadData(this.target);
+        ProgressTransfer.apply(this.target, ProgressTransfer.readFrom(this.target, new ByteArrayInputStream(blob)));
+
+        // the replays are installed by the writer
+        IO.awaitWriter();
+        assertProgress();
+
+        // the applied progress is saved
+        IO.awaitWriter();
+        IO.loadData(this.target);
+        assertProgress();
+        assertEquals(0, stagedFileCount());
+    }
+
+    @Test
+    public void applyKeepsBetterLocalTimes() throws IOException
+    {
+        IO.loadData(this.source);
+        Level.setBestTime(3, 5000);
+        Level.maxLevel = 4;
+        IO.saveReplay(this.source, 3, solution(2));
+        byte[] blob = export(this.source);
+
+        IO.loadData(this.target);
+        Level.setBestTime(3, 4000);
+        Level.maxLevel = 6;
+        IO.saveReplay(this.target, 3, journal(20));
+        ProgressTransfer.Import imported = ProgressTransfer.readFrom(this.target, new ByteArrayInputStream(blob));
+        ProgressTransfer.apply(this.target, imported);
+
+        // applying the same import again changes nothing
+        ProgressTransfer.apply(this.target, ProgressTransfer.readFrom(this.target, new ByteArrayInputStream(blob)));
+        IO.awaitWriter();
+        IO.loadData(this.target);
+        assertEquals(4000, Level.getBestTime(3));
+        assertEquals(6, Level.maxLevel);
+        assertEquals(20, IO.loadReplay(this.target, 3).size());
+        assertEquals(0, stagedFileCount());
+    }
+
+    @Test
+    public void applyDeletesReplayOfReplacedTime() throws IOException
+    {
+        IO.loadData(this.source);
+        Level.setBestTime(5, 3000);
+        Level.maxLevel = 6;
+        byte[] blob = export(this.source);
+
+        IO.loadData(this.target);
+        Level.setBestTime(5, 8000);
+        Level.maxLevel = 6;
+        IO.saveReplay(this.target, 5, journal(30));
+        ProgressTransfer.apply(this.target, ProgressTransfer.readFrom(this.target, new ByteArrayInputStream(blob)));
+
+        assertEquals(3000, Level.getBestTime(5));
+        IO.awaitWriter();
+        assertNull(IO.loadReplay(this.target, 5));
+    }
+
+    @Test
+    public void rejectsCorruptedBlob() throws IOException
+    {
+        IO.loadData(this.source);
+        Level.setBestTime(3, 5000);
+        IO.saveReplay(this.source, 3, solution(500));
+        byte[] blob = export(this.source);
+
+        IO.loadData(this.target);
+        blob[blob.length / 2] ^= 0x55;
+        assertRejected(blob);
+
+        // the checksum in the GZIP trailer is checked too, the trailer is the CRC-32 and the size in the last 8 bytes
+        blob = export(this.source);
+        blob[blob.length - 8] ^= 0x01;
+        assertRejected(blob);
+    }
+
+    @Test
+    public void rejectsInvalidReplays() throws IOException
+    {
+        IO.loadData(this.source);
+        Level.setBestTime(3, 5000);
+
+        // a ClickField which is not allowed in the level
+        MoveJournal replay = solution(0);
+        replay.add(1, 1, 1, 100);
+        IO.saveReplay(this.source, 3, replay);
+        byte[] blob = export(this.source);
+        IO.loadData(this.target);
+        assertRejected(blob);
+
+        // a move outside the board
+        IO.loadData(this.source);
+        Level.setBestTime(3, 5000);
+        replay = solution(0);
+        replay.add(100, 1, 0, 100);
+        IO.saveReplay(this.source, 3, replay);
+        blob = export(this.source);
+        IO.loadData(this.target);
+        assertRejected(blob);
+
+        // a run which does not clear the board
+        IO.loadData(this.source);
+        Level.setBestTime(3, 5000);
+        replay = solution(0);
+        replay.truncate(replay.size() - 1);
+        IO.saveReplay(this.source, 3, replay);
+        blob = export(this.source);
+        IO.loadData(this.target);
+        assertRejected(blob);
+    }
+
+    // checks the blob is not read and nothing of it is left behind
+    private void assertRejected(byte[] blob)
+    {
+        try
+        {
+            ProgressTransfer.readFrom(this.target, new ByteArrayInputStream(blob));
+            fail("an invalid blob was read");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+        assertEquals(0, Level.getBestTime(3));
+        assertEquals(0, stagedFileCount());
+    }
+
+    // checks the progress of roundTripCopiesProgress is loaded
+    private void assertProgress()
+    {
+        assertEquals(5000, Level.getBestTime(3));
+        assertEquals(9000, Level.getBestTime(7));
+        assertEquals(8, Level.maxLevel);
+        MoveJournal replay = IO.loadReplay(this.target, 3);
+        assertNotNull(replay);
+        MoveJournal expected = solution(500);
+        assertEquals(expected.size(), replay.size());
+        for (int i = 0; i < replay.size(); i++)
+        {
+            assertEquals(expected.getX(i), replay.getX(i));
+            assertEquals(expected.getY(i), replay.getY(i));
+            assertEquals(expected.getFieldIndex(i), replay.getFieldIndex(i));
+            assertEquals(expected.getTime(i), replay.getTime(i));
+        }
+        assertNull(IO.loadReplay(this.target, 7));
+    }
+
+    private static byte[] export(DeviceContext context) throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ProgressTransfer.prepareExport(context).writeTo(output);
+        return output.toByteArray();
+    }
+
+    /**
+     * Creates a run clearing the level 3, made of the clicks the level is defined by.
+     *
+     * @param wastedPairs the number of pairs of the same move, which cancel each other, before the clearing moves
+     * @return the moves of the run
+     */
+    private static MoveJournal solution(int wastedPairs)
+    {
+        int[] clicks = { 1, 0, 1, 1, 1, 2, 1, 3, 0, 2, 2, 2 };
+        MoveJournal journal = new MoveJournal();
+        for (int i = 0; i < wastedPairs; i++)
+        {
+            journal.add(1, 1, 0, journal.size());
+            journal.add(1, 1, 0, journal.size());
+        }
+        for (int i = 0; i < clicks.length; i += 2)
+        {
+            journal.add(clicks[i], clicks[i + 1], 0, journal.size());
+        }
+        return journal;
+    }
+
+    private static MoveJournal journal(int moveCount)
+    {
+        MoveJournal journal = new MoveJournal();
+        for (int i = 0; i < moveCount; i++)
+        {
+            journal.add(i % 7, i % 5, 0, i);
+        }
+        return journal;
+    }
+
+    // the number of replays staged by an import and not installed or deleted
+    private int stagedFileCount()
+    {
+        IO.awaitWriter();
+        File[] files = new File(this.target.getCacheDir(), "import").listFiles();
+        return files == null ? 0 : files.length;
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,290 @@
+package com.github.mimo31.thedecomposegame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the save file - that the saved data are read back, that corrupted files are rejected
+ * and that the files of the older versions are still read.
+ */
+public class SaveFileTest
+{
+    // the first int and the version of the versioned files
+    private static final int MAGIC = 0x44454350;
+    private static final int DENSE_VERSION = 2;
+
+    private File file;
+
+    @BeforeClass
+    public static void initializeLevels()
+    {
+        ClickField.initializeClickFields();
+        Level.initializeLevels();
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        this.file = File.createTempFile("Save", ".dat");
+        Level.setSave(null);
+        Level.maxLevel = 0;
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.file.delete();
+        Level.setSave(null);
+        Level.maxLevel = 0;
+    }
+
+    @Test
+    public void readsWrittenData() throws IOException
+    {
+        Level.setBestTime(0, 1500);
+        Level.setBestTime(1, 98765);
+        Level.setBestTime(4, 7);
+        Level.setBestTime(Level.levels.length - 1, Integer.MAX_VALUE);
+        write(SaveFile.write(5));
+
+        Level.setSave(null);
+        SaveFile save = SaveFile.read(this.file);
+        assertNotNull(save);
+        assertEquals(5, save.maxLevel);
+
+        Level.setSave(save);
+        assertEquals(1500, Level.getBestTime(0));
+        assertEquals(98765, Level.getBestTime(1));
+        assertEquals(0, Level.getBestTime(2));
+        assertEquals(7, Level.getBestTime(4));
+        assertEquals(Integer.MAX_VALUE, Level.getBestTime(Level.levels.length - 1));
+        assertEquals(4, Level.getBestTimes().size());
+    }
+
+    @Test
+    public void readsEmptySave() throws IOException
+    {
+        write(SaveFile.write(0));
+        SaveFile save = SaveFile.read(this.file);
+        assertNotNull(save);
+        assertEquals(0, save.maxLevel);
+        Level.setSave(save);
+        assertEquals(0, Level.getBestTimes().size());
+    }
+
+    @Test
+    public void rejectsMissingAndTruncatedFiles() throws IOException
+    {
+        assertNull(SaveFile.read(new File(this.file.getPath() + ".missing")));
+
+        Level.setBestTime(2, 1234);
+        byte[] contents = SaveFile.write(3);
+        for (int length = 0; length < contents.length; length++)
+        {
+            byte[] truncated = new byte[length];
+            System.arraycopy(contents, 0, truncated, 0, length);
+            write(truncated);
+            assertNull("truncated to " + length + " bytes", SaveFile.read(this.file));
+        }
+    }
+
+    @Test
+    public void rejectsFlippedHeaderAndEntryBytes() throws IOException
+    {
+        Level.setBestTime(2, 1234);
+        Level.setBestTime(3, 4321);
+        byte[] contents = SaveFile.write(3);
+
+        // bytes of the header, the entries and their checksums
+        int[] checkedBytes = { 0, 3, 4, 7, 11, 15, 19, 28, contents.length - 5, contents.length - 1 };
+        for (int i : checkedBytes)
+        {
+            contents[i] ^= 0x10;
+            write(contents);
+            assertNull("flipped byte " + i, SaveFile.read(this.file));
+            contents[i] ^= 0x10;
+        }
+        write(contents);
+        assertNotNull(SaveFile.read(this.file));
+    }
+
+    @Test
+    public void rejectsEveryFlippedByte() throws IOException
+    {
+        Level.setBestTime(2, 1234);
+        Level.setBestTime(3, 4321);
+        Level.setBestTime(20, 200000);
+        byte[] contents = SaveFile.write(21);
+        for (int i = 0; i < contents.length; i++)
+        {
+            for (int bit = 0; bit < 8; bit++)
+            {
+                contents[i] ^= 1 << bit;
+                write(contents);
+                assertNull("flipped bit " + bit + " of byte " + i, SaveFile.read(this.file));
+                contents[i] ^= 1 << bit;
+            }
+        }
+    }
+
+    @Test
+    public void sizeIsProportionalToCompletedLevels() throws IOException
+    {
+        int emptySize = SaveFile.write(0).length;
+        Level.setBestTime(Level.levels.length - 1, 60000);
+        int oneLevelSize = SaveFile.write(Level.levels.length - 1).length;
+
+        // the entry is the level difference and the time as varints, 1 and 3 bytes
+        assertEquals(emptySize + 4, oneLevelSize);
+    }
+
+    @Test
+    public void readsFirstVersion() throws IOException
+    {
+        // maxLevel followed by the best times of the levels up to maxLevel
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dataOutput = new DataOutputStream(bytes);
+        dataOutput.writeInt(2);
+        dataOutput.writeInt(3000);
+        dataOutput.writeInt(4000);
+        dataOutput.writeInt(0);
+        dataOutput.close();
+        write(bytes.toByteArray());
+
+        SaveFile save = SaveFile.read(this.file);
+        assertNotNull(save);
+        assertEquals(2, save.maxLevel);
+        Level.setSave(save);
+        assertEquals(3000, Level.getBestTime(0));
+        assertEquals(4000, Level.getBestTime(1));
+        assertEquals(0, Level.getBestTime(2));
+        assertEquals(2, Level.getBestTimes().size());
+    }
+
+    @Test
+    public void readsDenseVersion() throws IOException
+    {
+        write(writeDenseVersion(new int[] { 3000, 0, 5000 }, 3));
+
+        SaveFile save = SaveFile.read(this.file);
+        assertNotNull(save);
+        assertEquals(3, save.maxLevel);
+        Level.setSave(save);
+        assertEquals(3000, Level.getBestTime(0));
+        assertEquals(0, Level.getBestTime(1));
+        assertEquals(5000, Level.getBestTime(2));
+        assertEquals(2, Level.getBestTimes().size());
+    }
+
+    @Test
+    public void rejectsCorruptedDenseVersion() throws IOException
+    {
+        byte[] contents = writeDenseVersion(new int[] { 3000, 0, 5000 }, 3);
+        for (int i = 0; i < contents.length; i++)
+        {
+            contents[i] ^= 0x01;
+            write(contents);
+            assertNull("flipped byte " + i, SaveFile.read(this.file));
+            contents[i] ^= 0x01;
+        }
+    }
+
+    @Test
+    public void getsSingleBestTimes() throws IOException
+    {
+        Level.setBestTime(1, 98765);
+        Level.setBestTime(4, 7);
+        write(SaveFile.write(5));
+        SaveFile save = SaveFile.read(this.file);
+        assertNotNull(save);
+        for (int level = 0; level < Level.levels.length; level++)
+        {
+            assertEquals("level " + level, Level.getBestTime(level), save.getBestTime(level));
+        }
+
+        write(writeDenseVersion(new int[] { 3000, 0, 5000 }, 3));
+        save = SaveFile.read(this.file);
+        assertNotNull(save);
+        assertEquals(3000, save.getBestTime(0));
+        assertEquals(0, save.getBestTime(1));
+        assertEquals(5000, save.getBestTime(2));
+        assertEquals(0, save.getBestTime(3));
+    }
+
+    @Test
+    public void mergesCompletionsIntoUndecodedSave() throws IOException
+    {
+        Level.setBestTime(1, 5000);
+        Level.setBestTime(2, 3000);
+        write(SaveFile.write(3));
+
+        Level.setSave(SaveFile.read(this.file));
+        Level.mergeBestTime(1, 4000);
+        Level.mergeBestTime(2, 3500);
+        Level.mergeBestTime(3, 8000);
+        assertTrue(Level.isCompleted(2));
+        assertTrue(Level.isCompleted(3));
+        assertFalse(Level.isCompleted(4));
+
+        assertEquals(4000, Level.getBestTime(1));
+        assertEquals(3000, Level.getBestTime(2));
+        assertEquals(8000, Level.getBestTime(3));
+        assertEquals(3, Level.getBestTimes().size());
+    }
+
+    // writes a file of the version with the best times of all the levels up to maxLevel as ints
+    private static byte[] writeDenseVersion(int[] bestTimes, int maxLevel) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dataOutput = new DataOutputStream(bytes);
+        dataOutput.writeInt(MAGIC);
+        dataOutput.writeInt(DENSE_VERSION);
+        dataOutput.writeInt(Level.levels.length);
+        dataOutput.writeInt(maxLevel);
+        dataOutput.writeInt(crc(bytes.toByteArray(), 0, 16));
+        dataOutput.writeInt(bestTimes.length);
+        int entriesStart = bytes.size();
+        for (int time : bestTimes)
+        {
+            dataOutput.writeInt(time);
+        }
+        dataOutput.writeInt(crc(bytes.toByteArray(), entriesStart, 4 * bestTimes.length));
+        dataOutput.close();
+        return bytes.toByteArray();
+    }
+
+    private static int crc(byte[] bytes, int offset, int length)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private void write(byte[] contents) throws IOException
+    {
+        FileOutputStream outputStream = new FileOutputStream(this.file);
+        try
+        {
+            outputStream.write(contents);
+        }
+        finally
+        {
+            outputStream.close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.mimo31.thedecomposegame;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests the formatting of the TextBuffer and that formatting the texts drawn every frame does not allocate.
+ */
+public class TextBufferTest
+{
+    // the numbers of formatted frames compared by the allocation test
+    private static final int FEW_FRAMES = 1000;
+    private static final int MANY_FRAMES = 100000;
+
+    // the number of bytes the measurement itself may allocate
+    private static final long MEASUREMENT_SLACK = 1024;
+
+    @Test
+    public void formatsNumbers()
+    {
+        TextBuffer text = new TextBuffer(32);
+        assertEquals("0", text.clear().append(0).toString());
+        assertEquals("1234567890123", text.clear().append(1234567890123L).toString());
+        assertEquals("007", text.clear().append(7, 3).toString());
+        assertEquals("1234", text.clear().append(1234, 3).toString());
+        assertEquals("Level 12", text.clear().append("Level ").append(12).toString());
+    }
+
+    @Test
+    public void formatsTimes()
+    {
+        TextBuffer text = new TextBuffer(32);
+        assertEquals("0.000", text.clear().appendTime(0).toString());
+        assertEquals("0.042", text.clear().appendTime(42).toString());
+        assertEquals("12.345", text.clear().appendTime(12345).toString());
+        assertEquals("100.000", text.clear().appendTime(100000).toString());
+    }
+
+    @Test
+    public void formattingDoesNotAllocate()
+    {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        TextBuffer text = new TextBuffer(128);
+
+        // warm up, so that the JIT compiler has settled
+        formatFrames(text, MANY_FRAMES);
+
+        long threadId = Thread.currentThread().getId();
+        long start = allocations.getThreadAllocatedBytes(threadId);
+        formatFrames(text, FEW_FRAMES);
+        long fewFramesBytes = allocations.getThreadAllocatedBytes(threadId) - start;
+
+        start = allocations.getThreadAllocatedBytes(threadId);
+        formatFrames(text, MANY_FRAMES);
+        long manyFramesBytes = allocations.getThreadAllocatedBytes(threadId) - start;
+
+        // any allocation per frame would make the many frames allocate at least MANY_FRAMES - FEW_FRAMES bytes more
+        assertTrue("formatting " + MANY_FRAMES + " frames allocated " + manyFramesBytes + " bytes, " + FEW_FRAMES + " frames " + fewFramesBytes + " bytes",
+                manyFramesBytes - fewFramesBytes < MEASUREMENT_SLACK);
+    }
+
+    // formats the texts of the PlayActivity and the ChooseLevelActivity as their onDraw does
+    private static void formatFrames(TextBuffer text, int frames)
+    {
+        int checksum = 0;
+        for (int i = 0; i < frames; i++)
+        {
+            text.clear().append("Level ").append(i % 100 + 1);
+            checksum += text.length;
+            text.clear().appendTime(i * 17);
+            checksum += text.length;
+            text.clear().append("best: ").appendTime(i).append(" s");
+            checksum += text.chars[text.length - 1];
+        }
+        assertTrue(checksum > 0);
+    }
+}